@@ -0,0 +1,121 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.benchmarks;
+
+import de.itc.onkostar.api.Procedure;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
+import de.ukw.ccc.dnpmexport.mapper.MapperRegistry;
+import de.ukw.ccc.dnpmexport.services.DnpmExportService;
+import de.ukw.ccc.dnpmexport.services.ExportMetrics;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Complete export of a synthetic case: procedure lookup, mapping, serialization and sending the MTBFile
+ * to an in memory HTTP endpoint.
+ * <p>
+ * Use parameter 'apiLatencyMicros' to add latency to each call of {@link de.itc.onkostar.api.IOnkostarApi}.
+ * The number of API calls per export is printed at the end of each trial.
+ * Use parameter 'apiProfiling' to print duplicate API calls and the redundancy ratio as well.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExportBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int subForms;
+
+    @Param({"1"})
+    public int mappingParallelism;
+
+    @Param({"0"})
+    public int apiLatencyMicros;
+
+    @Param({"false"})
+    public boolean apiProfiling;
+
+    private InMemoryOnkostarApi inMemoryApi;
+
+    private NoopClientHttpRequestFactory requestFactory;
+
+    private ExportMetrics exportMetrics;
+
+    private DnpmExportService service;
+
+    private Procedure klinikAnamnese;
+
+    private long exports;
+
+    @Setup
+    public void setup() {
+        var syntheticCase = SyntheticCase.create(subForms)
+                .setting("dnpmexport_mapping_parallelism", String.valueOf(mappingParallelism))
+                .setting("dnpmexport_api_profiling", String.valueOf(apiProfiling));
+        var onkostarApi = syntheticCase.onkostarApi();
+        var settingsProvider = new DnpmExportSettingsProvider(onkostarApi);
+
+        this.requestFactory = new NoopClientHttpRequestFactory();
+        this.exportMetrics = new ExportMetrics();
+        this.service = new DnpmExportService(
+                new RestTemplate(requestFactory),
+                settingsProvider,
+                new MapperRegistry(onkostarApi, settingsProvider),
+                exportMetrics
+        );
+        this.klinikAnamnese = syntheticCase.klinikAnamnese();
+
+        this.inMemoryApi = syntheticCase.inMemoryApi();
+        this.inMemoryApi.setLatency(Duration.of(apiLatencyMicros, ChronoUnit.MICROS));
+        this.inMemoryApi.resetCallCount();
+        this.exports = 0;
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        service.destroy();
+        if (exports > 0) {
+            System.out.printf("%nAPI calls per export: %d%n", inMemoryApi.getCallCount() / exports);
+        }
+        if (apiProfiling) {
+            System.out.printf("Duplicate API calls: %s, redundancy ratio: %.3f%n", exportMetrics.getDuplicateApiCalls(), exportMetrics.getRedundancyRatio());
+        }
+    }
+
+    @Benchmark
+    public long export() {
+        service.export(klinikAnamnese, true);
+        exports++;
+        return requestFactory.getLastBodySize();
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.benchmarks;
+
+import de.itc.onkostar.api.Disease;
+import de.itc.onkostar.api.IOnkostarApi;
+import de.itc.onkostar.api.Procedure;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Deterministic in memory stand-in for the {@link IOnkostarApi} methods used by this plugin.
+ * <p>
+ * Procedures, diseases, global settings and property catalogue versions are served from maps.
+ * All other methods of {@link IOnkostarApi} return default values.
+ * Each served call can be delayed by a fixed latency to simulate database round trips.
+ */
+public class InMemoryOnkostarApi {
+
+    private static final Map<Class<?>, Object> PRIMITIVE_DEFAULTS = Map.of(
+            boolean.class, false,
+            byte.class, (byte) 0,
+            short.class, (short) 0,
+            char.class, '\0',
+            int.class, 0,
+            long.class, 0L,
+            float.class, 0f,
+            double.class, 0d
+    );
+
+    private final Map<Integer, Procedure> procedures = new ConcurrentHashMap<>();
+    private final Map<Integer, Map<String, List<Procedure>>> proceduresByDiseaseAndForm = new ConcurrentHashMap<>();
+    private final Map<Integer, Disease> diseasesByProcedure = new ConcurrentHashMap<>();
+    private final Map<String, String> settings = new ConcurrentHashMap<>();
+    private final Map<Integer, String> catalogueVersionOids = new ConcurrentHashMap<>();
+
+    private final AtomicLong calls = new AtomicLong();
+
+    private final IOnkostarApi onkostarApi;
+
+    private volatile long latencyNanos;
+
+    public InMemoryOnkostarApi() {
+        this.onkostarApi = (IOnkostarApi) Proxy.newProxyInstance(
+                IOnkostarApi.class.getClassLoader(),
+                new Class<?>[]{IOnkostarApi.class},
+                (proxy, method, args) -> {
+                    if (Object.class.equals(method.getDeclaringClass())) {
+                        return method.invoke(this, args);
+                    }
+                    switch (method.getName()) {
+                        case "getProcedure":
+                            return served(procedures.get((Integer) args[0]));
+                        case "getProceduresForDiseaseByForm":
+                            return served(getProceduresForDiseaseByForm((Integer) args[0], (String) args[1]));
+                        case "getDiseasesByProcedureId":
+                            return served(getDiseasesByProcedureId((Integer) args[0]));
+                        case "getGlobalSetting":
+                            return served(settings.get((String) args[0]));
+                        case "getPropertyCatalogueVersionOid":
+                            return served(catalogueVersionOids.get((Integer) args[0]));
+                        default:
+                            return defaultValue(method.getReturnType());
+                    }
+                }
+        );
+    }
+
+    /**
+     * The {@link IOnkostarApi} backed by this instance
+     *
+     * @return The API
+     */
+    public IOnkostarApi api() {
+        return onkostarApi;
+    }
+
+    /**
+     * Adds procedure related to given disease. The procedure will replace any existing procedure with same ID.
+     *
+     * @param procedure The procedure
+     * @param disease   The disease of this procedure
+     */
+    public void addProcedure(Procedure procedure, Disease disease) {
+        procedures.put(procedure.getId(), procedure);
+        diseasesByProcedure.put(procedure.getId(), disease);
+        proceduresByDiseaseAndForm
+                .computeIfAbsent(disease.getId(), id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(procedure.getFormName(), formName -> Collections.synchronizedList(new ArrayList<>()))
+                .add(procedure);
+    }
+
+    public void setGlobalSetting(String name, String value) {
+        settings.put(name, value);
+    }
+
+    public void setPropertyCatalogueVersionOid(int versionId, String oid) {
+        catalogueVersionOids.put(versionId, oid);
+    }
+
+    /**
+     * Sets the latency added to each served call
+     *
+     * @param latency The latency, zero for no latency
+     */
+    public void setLatency(Duration latency) {
+        this.latencyNanos = latency.toNanos();
+    }
+
+    /**
+     * Number of served calls since creation or last reset
+     *
+     * @return The number of calls
+     */
+    public long getCallCount() {
+        return calls.get();
+    }
+
+    public void resetCallCount() {
+        calls.set(0);
+    }
+
+    private List<Procedure> getProceduresForDiseaseByForm(int diseaseId, String formName) {
+        var procedures = proceduresByDiseaseAndForm.getOrDefault(diseaseId, Map.of()).get(formName);
+        if (null == procedures) {
+            return new ArrayList<>();
+        }
+        // Onkostar returns a new list for each call
+        synchronized (procedures) {
+            return new ArrayList<>(procedures);
+        }
+    }
+
+    private List<Disease> getDiseasesByProcedureId(int procedureId) {
+        var disease = diseasesByProcedure.get(procedureId);
+        if (null == disease) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(List.of(disease));
+    }
+
+    private <T> T served(T result) {
+        calls.incrementAndGet();
+        var latency = latencyNanos;
+        if (latency > 0) {
+            var deadline = System.nanoTime() + latency;
+            for (var remaining = latency; remaining > 0; remaining = deadline - System.nanoTime()) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+        return result;
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (List.class.equals(type)) {
+            return List.of();
+        }
+        return PRIMITIVE_DEFAULTS.get(type);
+    }
+
+}
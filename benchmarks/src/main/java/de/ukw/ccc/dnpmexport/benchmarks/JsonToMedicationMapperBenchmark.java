@@ -0,0 +1,72 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.benchmarks;
+
+import de.ukw.ccc.bwhc.dto.Medication;
+import de.ukw.ccc.dnpmexport.mapper.JsonToMedicationMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping of field 'wirkstoffejson' using {@link JsonToMedicationMapper}.
+ * More distinct JSON strings than cached results show the costs of parsing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonToMedicationMapperBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int distinctJsons;
+
+    private JsonToMedicationMapper mapper;
+
+    private String[] jsons;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        this.mapper = new JsonToMedicationMapper();
+        this.jsons = new String[distinctJsons];
+        for (int i = 0; i < distinctJsons; i++) {
+            jsons[i] = SyntheticCaseGenerator.medicationJson(i);
+        }
+    }
+
+    @Benchmark
+    public Optional<List<Medication>> apply() {
+        var json = jsons[next];
+        next = (next + 1) % jsons.length;
+        return mapper.apply(json);
+    }
+
+}
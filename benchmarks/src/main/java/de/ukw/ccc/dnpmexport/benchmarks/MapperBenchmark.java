@@ -0,0 +1,106 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.benchmarks;
+
+import de.itc.onkostar.api.Procedure;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
+import de.ukw.ccc.dnpmexport.mapper.MapperRegistry;
+import de.ukw.ccc.dnpmexport.mapper.MapperUtils;
+import de.ukw.ccc.dnpmexport.mapper.ProcedureMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Each {@link ProcedureMapper} applied to the matching procedure of a synthetic case.
+ * As within an export, each invocation uses its own procedure graph.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MapperBenchmark {
+
+    @Param({
+            "KlinikAnamneseToConsentMapper",
+            "KlinikAnamneseToDiagnoseMapper",
+            "KlinikAnamneseToEcogStatusMapper",
+            "KlinikAnamneseToEpisodeMapper",
+            "KlinikAnamneseToFamilyMemberDiagnosisMapper",
+            "TherapieplanToCarePlanMapper",
+            "TherapieplanToGeneticCounsellingRequestMapper",
+            "TherapieplanToHistologyReevaluationRequestMapper",
+            "TherapieplanToRebiopsyRequestMapper",
+            "TherapieplanToRecommendationMapper",
+            "TherapieplanToStudyInclusionMapper",
+            "FollowUpToClaimMapper",
+            "FollowUpToClaimResponseMapper",
+            "FollowUpToHistoryMapper",
+            "FollowUpToResponseMapper",
+            "MolekulargenetikToNgsReportMapper",
+            "MolekulargenetikToSpecimenMapper"
+    })
+    public String mapper;
+
+    @Param({"1", "10", "100", "1000"})
+    public int subForms;
+
+    private MapperUtils mapperUtils;
+
+    private ProcedureMapper<?> procedureMapper;
+
+    private Procedure procedure;
+
+    @Setup
+    public void setup() throws ClassNotFoundException {
+        var syntheticCase = SyntheticCase.create(subForms);
+        var onkostarApi = syntheticCase.onkostarApi();
+        var mapperRegistry = new MapperRegistry(onkostarApi, new DnpmExportSettingsProvider(onkostarApi));
+
+        this.mapperUtils = mapperRegistry.mapperUtils();
+        this.procedureMapper = mapperRegistry.get(
+                Class.forName(MapperUtils.class.getPackageName() + "." + mapper).asSubclass(ProcedureMapper.class)
+        );
+        this.procedure = Stream.of(
+                        syntheticCase.klinikAnamnese(),
+                        syntheticCase.therapieplan(),
+                        syntheticCase.followUp(),
+                        syntheticCase.molekulargenetik()
+                )
+                .filter(procedureMapper::canApply)
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No procedure for " + mapper));
+    }
+
+    @Benchmark
+    public void apply(Blackhole blackhole) {
+        mapperUtils.withProcedureGraph(() -> blackhole.consume(procedureMapper.apply(procedure)));
+    }
+
+}
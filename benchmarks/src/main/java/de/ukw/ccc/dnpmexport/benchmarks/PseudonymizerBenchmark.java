@@ -0,0 +1,71 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.benchmarks;
+
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
+import de.ukw.ccc.dnpmexport.mapper.MapperUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pseudonymization of procedure IDs using {@link MapperUtils#anonymizeId(String)}.
+ * Use JMH option '-prof gc' to show allocations per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PseudonymizerBenchmark {
+
+    @Param({"1", "1000", "100000"})
+    public int distinctIds;
+
+    private MapperUtils mapperUtils;
+
+    private String[] ids;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        var onkostarApi = SyntheticCase.create(1).onkostarApi();
+        this.mapperUtils = new MapperUtils(onkostarApi, new DnpmExportSettingsProvider(onkostarApi));
+        this.ids = new String[distinctIds];
+        for (int i = 0; i < distinctIds; i++) {
+            ids[i] = String.valueOf(100_000 + i);
+        }
+    }
+
+    @Benchmark
+    public String anonymizeId() {
+        var id = ids[next];
+        next = (next + 1) % ids.length;
+        return mapperUtils.anonymizeId(id);
+    }
+
+}
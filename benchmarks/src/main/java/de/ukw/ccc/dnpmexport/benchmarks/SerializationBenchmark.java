@@ -0,0 +1,123 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.ukw.ccc.bwhc.dto.MtbFile;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
+import de.ukw.ccc.dnpmexport.mapper.MapperRegistry;
+import de.ukw.ccc.dnpmexport.services.DnpmExportService;
+import de.ukw.ccc.dnpmexport.services.ExportMetrics;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON serialization of the MTBFile of a synthetic case.
+ * The MTBFile is created once by a complete export and captured before it would be sent.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int subForms;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private MtbFile mtbFile;
+
+    @Setup
+    public void setup() throws InterruptedException {
+        var syntheticCase = SyntheticCase.create(subForms);
+        var onkostarApi = syntheticCase.onkostarApi();
+        var settingsProvider = new DnpmExportSettingsProvider(onkostarApi);
+
+        var capturingConverter = new CapturingMessageConverter();
+        var restTemplate = new RestTemplate(new NoopClientHttpRequestFactory());
+        restTemplate.getMessageConverters().add(0, capturingConverter);
+
+        var service = new DnpmExportService(
+                restTemplate,
+                settingsProvider,
+                new MapperRegistry(onkostarApi, settingsProvider),
+                new ExportMetrics()
+        );
+        service.export(syntheticCase.klinikAnamnese(), true);
+        service.destroy();
+
+        if (null == capturingConverter.mtbFile) {
+            throw new IllegalStateException("No MTBFile exported");
+        }
+        this.mtbFile = capturingConverter.mtbFile;
+    }
+
+    @Benchmark
+    public byte[] writeValueAsBytes() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(mtbFile);
+    }
+
+    private static class CapturingMessageConverter implements HttpMessageConverter<MtbFile> {
+
+        private MtbFile mtbFile;
+
+        @Override
+        public boolean canRead(Class<?> clazz, MediaType mediaType) {
+            return false;
+        }
+
+        @Override
+        public boolean canWrite(Class<?> clazz, MediaType mediaType) {
+            return MtbFile.class.isAssignableFrom(clazz);
+        }
+
+        @Override
+        public List<MediaType> getSupportedMediaTypes() {
+            return List.of(MediaType.APPLICATION_JSON);
+        }
+
+        @Override
+        public MtbFile read(Class<? extends MtbFile> clazz, HttpInputMessage inputMessage) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void write(MtbFile mtbFile, MediaType contentType, HttpOutputMessage outputMessage) {
+            this.mtbFile = mtbFile;
+        }
+    }
+
+}
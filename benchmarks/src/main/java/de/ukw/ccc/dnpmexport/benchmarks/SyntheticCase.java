@@ -0,0 +1,128 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.benchmarks;
+
+import de.itc.onkostar.api.IOnkostarApi;
+import de.itc.onkostar.api.Procedure;
+
+import java.util.List;
+
+/**
+ * Synthetic DNPM case created by {@link SyntheticCaseGenerator}
+ */
+public class SyntheticCase {
+
+    private final InMemoryOnkostarApi inMemoryApi;
+    private final Procedure klinikAnamnese;
+    private final List<Procedure> therapieplaene;
+    private final List<Procedure> einzelempfehlungen;
+    private final List<Procedure> followUps;
+    private final List<Procedure> molekulargenetik;
+
+    SyntheticCase(
+            final InMemoryOnkostarApi inMemoryApi,
+            final Procedure klinikAnamnese,
+            final List<Procedure> therapieplaene,
+            final List<Procedure> einzelempfehlungen,
+            final List<Procedure> followUps,
+            final List<Procedure> molekulargenetik
+    ) {
+        this.inMemoryApi = inMemoryApi;
+        this.klinikAnamnese = klinikAnamnese;
+        this.therapieplaene = List.copyOf(therapieplaene);
+        this.einzelempfehlungen = List.copyOf(einzelempfehlungen);
+        this.followUps = List.copyOf(followUps);
+        this.molekulargenetik = List.copyOf(molekulargenetik);
+    }
+
+    /**
+     * Creates a case with one 'DNPM Klinik/Anamnese', one 'DNPM Therapieplan' and one 'OS.Molekulargenetik' procedure.
+     * Each of them has given number of sub forms of each kind, each 'DNPM UF Einzelempfehlung' is referenced
+     * by one 'DNPM FollowUp' procedure.
+     *
+     * @param subForms The number of sub forms of each kind
+     * @return The synthetic case
+     */
+    public static SyntheticCase create(int subForms) {
+        return SyntheticCaseGenerator.scaled(subForms).generate();
+    }
+
+    /**
+     * Sets global setting served by {@link IOnkostarApi#getGlobalSetting(String)}
+     *
+     * @param name  The name of the setting
+     * @param value The value
+     * @return This case
+     */
+    public SyntheticCase setting(String name, String value) {
+        inMemoryApi.setGlobalSetting(name, value);
+        return this;
+    }
+
+    public InMemoryOnkostarApi inMemoryApi() {
+        return inMemoryApi;
+    }
+
+    public IOnkostarApi onkostarApi() {
+        return inMemoryApi.api();
+    }
+
+    public Procedure klinikAnamnese() {
+        return klinikAnamnese;
+    }
+
+    public Procedure therapieplan() {
+        return therapieplaene.get(0);
+    }
+
+    public List<Procedure> therapieplaene() {
+        return therapieplaene;
+    }
+
+    public Procedure einzelempfehlung() {
+        return einzelempfehlungen.get(0);
+    }
+
+    public List<Procedure> einzelempfehlungen() {
+        return einzelempfehlungen;
+    }
+
+    public Procedure followUp() {
+        return followUps.get(0);
+    }
+
+    public List<Procedure> followUps() {
+        return followUps;
+    }
+
+    public Procedure molekulargenetik() {
+        return molekulargenetik.get(0);
+    }
+
+    public List<Procedure> molekulargenetikProcedures() {
+        return molekulargenetik;
+    }
+
+}
@@ -0,0 +1,400 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.benchmarks;
+
+import de.itc.onkostar.api.*;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic DNPM cases of configurable size.
+ * <p>
+ * Each case consists of one 'DNPM Klinik/Anamnese' procedure referenced by 'DNPM Therapieplan' procedures
+ * with 'DNPM UF Einzelempfehlung' sub forms, each of them referenced by 'DNPM FollowUp' procedures.
+ * 'OS.Molekulargenetik' procedures are referenced by Einzelempfehlungen, Rebiopsien and Therapieplaene.
+ * Values are chosen by a seeded random generator, so the same configuration always creates the same case.
+ */
+public class SyntheticCaseGenerator {
+
+    static final String KLINIK_ANAMNESE = "DNPM Klinik/Anamnese";
+    static final String THERAPIEPLAN = "DNPM Therapieplan";
+    static final String EINZELEMPFEHLUNG = "DNPM UF Einzelempfehlung";
+    static final String FOLLOW_UP = "DNPM FollowUp";
+    static final String MOLEKULARGENETIK = "OS.Molekulargenetik";
+
+    private static final int ICD10_VERSION_ID = 10;
+    private static final Instant START = Instant.parse("2024-01-01T12:00:00Z");
+
+    private static final String[] EVIDENZLEVEL_ZUSATZ = {"s", "v", "z", "r"};
+    private static final String[] STATUS_THERAPIE = {"on-going", "stopped", "completed", "not-done"};
+    private static final String[] BEST_RESPONSE = {"c", "t", "m", "s", "p", "n"};
+    private static final String[] DOSISDICHTE = {"g", "k"};
+    private static final String[] STATUS_KOSTENUEBERNAHME = {"accepted", "rejected"};
+    private static final int DISTINCT_MEDICATIONS = 50;
+
+    private int ecog = 1;
+    private int verwandte = 1;
+    private int therapieplaene = 1;
+    private int rebiopsien = 1;
+    private int einzelempfehlungen = 1;
+    private int followUps = 1;
+    private int molekulargenetik = 1;
+    private int untersuchungen = 1;
+    private long seed = 42;
+
+    /**
+     * Generator for cases with one 'DNPM Therapieplan' and one 'OS.Molekulargenetik' procedure,
+     * given number of sub forms of each kind and one 'DNPM FollowUp' per 'DNPM UF Einzelempfehlung'.
+     *
+     * @param subForms The number of sub forms of each kind
+     * @return The generator
+     */
+    public static SyntheticCaseGenerator scaled(int subForms) {
+        return new SyntheticCaseGenerator()
+                .withEcog(subForms)
+                .withVerwandte(subForms)
+                .withRebiopsien(subForms)
+                .withEinzelempfehlungen(subForms)
+                .withUntersuchungen(subForms);
+    }
+
+    /**
+     * @param ecog Number of 'DNPM UF ECOG' sub forms of 'DNPM Klinik/Anamnese'
+     * @return This generator
+     */
+    public SyntheticCaseGenerator withEcog(int ecog) {
+        this.ecog = ecog;
+        return this;
+    }
+
+    /**
+     * @param verwandte Number of 'DNPM UF Verwandte' sub forms of 'DNPM Klinik/Anamnese'
+     * @return This generator
+     */
+    public SyntheticCaseGenerator withVerwandte(int verwandte) {
+        this.verwandte = verwandte;
+        return this;
+    }
+
+    /**
+     * @param therapieplaene Number of 'DNPM Therapieplan' procedures
+     * @return This generator
+     */
+    public SyntheticCaseGenerator withTherapieplaene(int therapieplaene) {
+        this.therapieplaene = therapieplaene;
+        return this;
+    }
+
+    /**
+     * @param rebiopsien Number of 'DNPM UF Rebiopsie' sub forms of each 'DNPM Therapieplan'
+     * @return This generator
+     */
+    public SyntheticCaseGenerator withRebiopsien(int rebiopsien) {
+        this.rebiopsien = rebiopsien;
+        return this;
+    }
+
+    /**
+     * @param einzelempfehlungen Number of 'DNPM UF Einzelempfehlung' sub forms of each 'DNPM Therapieplan'
+     * @return This generator
+     */
+    public SyntheticCaseGenerator withEinzelempfehlungen(int einzelempfehlungen) {
+        this.einzelempfehlungen = einzelempfehlungen;
+        return this;
+    }
+
+    /**
+     * @param followUps Number of 'DNPM FollowUp' procedures of each 'DNPM UF Einzelempfehlung'
+     * @return This generator
+     */
+    public SyntheticCaseGenerator withFollowUps(int followUps) {
+        this.followUps = followUps;
+        return this;
+    }
+
+    /**
+     * @param molekulargenetik Number of 'OS.Molekulargenetik' procedures, at least one
+     * @return This generator
+     */
+    public SyntheticCaseGenerator withMolekulargenetik(int molekulargenetik) {
+        this.molekulargenetik = Math.max(1, molekulargenetik);
+        return this;
+    }
+
+    /**
+     * @param untersuchungen Number of 'OS.Molekulargenetische Untersuchung' sub forms of each 'OS.Molekulargenetik'
+     * @return This generator
+     */
+    public SyntheticCaseGenerator withUntersuchungen(int untersuchungen) {
+        this.untersuchungen = untersuchungen;
+        return this;
+    }
+
+    /**
+     * @param seed Seed of the random generator used to choose values
+     * @return This generator
+     */
+    public SyntheticCaseGenerator withSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Generates a new case served by its own {@link InMemoryOnkostarApi}
+     *
+     * @return The synthetic case
+     */
+    public SyntheticCase generate() {
+        return new Generation(new InMemoryOnkostarApi(), new Random(seed)).generate();
+    }
+
+    /**
+     * JSON content of field 'wirkstoffejson' as used in 'DNPM UF Einzelempfehlung'
+     *
+     * @param i The index used to create distinct medications
+     * @return The JSON string
+     */
+    public static String medicationJson(int i) {
+        return String.format(
+                "[{\"code\":\"L01EB%02d\",\"name\":\"Wirkstoff %d\",\"system\":\"ATC\",\"version\":\"2024\"}]",
+                i % 100,
+                i
+        );
+    }
+
+    private static Date date(int days) {
+        return Date.from(START.plus(days, ChronoUnit.DAYS));
+    }
+
+    private static String dateString(int days) {
+        return START.plus(days, ChronoUnit.DAYS).toString().substring(0, 10);
+    }
+
+    private class Generation {
+
+        private final InMemoryOnkostarApi inMemoryApi;
+        private final Random random;
+        private final Patient patient;
+        private final Disease disease;
+
+        private int nextId = 1;
+
+        private Generation(final InMemoryOnkostarApi inMemoryApi, final Random random) {
+            this.inMemoryApi = inMemoryApi;
+            this.random = random;
+
+            var onkostarApi = inMemoryApi.api();
+
+            this.patient = new Patient(onkostarApi);
+            this.patient.setId(123456);
+            this.patient.setPatientId("2000123456");
+            this.patient.setBirthdate(Date.from(Instant.parse("1970-01-01T00:00:00Z")));
+            this.patient.setSex(Sex.FEMALE);
+
+            this.disease = new Disease(onkostarApi);
+            this.disease.setId(1);
+            this.disease.setPatientId(patient.getId());
+            this.disease.setIcd10Code("C34.0");
+            this.disease.setIcd10Version(ICD10_VERSION_ID);
+
+            inMemoryApi.setPropertyCatalogueVersionOid(ICD10_VERSION_ID, "icd10gmversion2024");
+            inMemoryApi.setGlobalSetting("dnpmexport_url", "http://localhost/mtbfile");
+            inMemoryApi.setGlobalSetting("dnpmexport_prefix", "BENCH");
+        }
+
+        private SyntheticCase generate() {
+            var tumorkonferenz = procedure("OS.Tumorkonferenz", 0);
+            tumorkonferenz.setValue("Datum", new Item("Datum", dateString(14)));
+
+            var molekulargenetikProcedures = new ArrayList<Procedure>();
+            for (int i = 0; i < molekulargenetik; i++) {
+                molekulargenetikProcedures.add(molekulargenetik());
+            }
+
+            var klinikAnamnese = klinikAnamnese();
+
+            var therapieplanProcedures = new ArrayList<Procedure>();
+            var einzelempfehlungProcedures = new ArrayList<Procedure>();
+            var followUpProcedures = new ArrayList<Procedure>();
+            for (int t = 0; t < therapieplaene; t++) {
+                var therapieplan = therapieplan(klinikAnamnese, pick(molekulargenetikProcedures));
+                therapieplanProcedures.add(therapieplan);
+
+                for (int i = 0; i < rebiopsien; i++) {
+                    var rebiopsie = procedure("DNPM UF Rebiopsie", therapieplan.getId());
+                    rebiopsie.setValue("refmolekulargenetik", new Item("refmolekulargenetik", pick(molekulargenetikProcedures).getId()));
+                }
+
+                for (int i = 0; i < einzelempfehlungen; i++) {
+                    var einzelempfehlung = einzelempfehlung(therapieplan, tumorkonferenz, pick(molekulargenetikProcedures));
+                    einzelempfehlungProcedures.add(einzelempfehlung);
+
+                    for (int f = 0; f < followUps; f++) {
+                        followUpProcedures.add(followUp(einzelempfehlung));
+                    }
+                }
+            }
+
+            return new SyntheticCase(
+                    inMemoryApi,
+                    klinikAnamnese,
+                    therapieplanProcedures,
+                    einzelempfehlungProcedures,
+                    followUpProcedures,
+                    molekulargenetikProcedures
+            );
+        }
+
+        private Procedure klinikAnamnese() {
+            var klinikAnamnese = procedure(KLINIK_ANAMNESE, 0);
+            klinikAnamnese.setValue("ConsentStatusEinwilligungDNPM", new Item("ConsentStatusEinwilligungDNPM", "active"));
+            klinikAnamnese.setValue("AnmeldedatumMTB", new Item("AnmeldedatumMTB", dateString(0)));
+            klinikAnamnese.setValue("DatumErstdiagnose", new Item("DatumErstdiagnose", date(-30)));
+            klinikAnamnese.setValue("ICD10", new Item("ICD10", "C34.0"));
+            klinikAnamnese.setValue("ICDO3Lokalisation", new Item("ICDO3Lokalisation", "C34.0"));
+            klinikAnamnese.setValue("WHOGrad", new Item("WHOGrad", "II"));
+
+            for (int i = 0; i < ecog; i++) {
+                var ecogProcedure = procedure("DNPM UF ECOG", klinikAnamnese.getId());
+                ecogProcedure.setValue("Datum", new Item("Datum", dateString(i)));
+                ecogProcedure.setValue("ECOG", new Item("ECOG", String.valueOf(random.nextInt(5))));
+            }
+
+            for (int i = 0; i < verwandte; i++) {
+                var verwandteProcedure = procedure("DNPM UF Verwandte", klinikAnamnese.getId());
+                verwandteProcedure.setValue("Verwandtschaftsgrad", new Item("Verwandtschaftsgrad", random.nextBoolean() ? "FAMMEMB" : "EXT"));
+            }
+
+            return klinikAnamnese;
+        }
+
+        private Procedure therapieplan(Procedure klinikAnamnese, Procedure tumorprobe) {
+            var therapieplan = procedure(THERAPIEPLAN, 0);
+            therapieplan.setValue("refdnpmklinikanamnese", new Item("refdnpmklinikanamnese", klinikAnamnese.getId()));
+            therapieplan.setValue("refreevaltumorprobe", new Item("refreevaltumorprobe", tumorprobe.getId()));
+            therapieplan.setValue("protokollauszug", new Item("protokollauszug", "Synthetischer Protokollauszug"));
+            therapieplan.setValue("target", new Item("target", random.nextInt(10) == 0 ? "KT" : "T"));
+            therapieplan.setValue("humangenberatung", new Item("humangenberatung", "1"));
+            therapieplan.setValue("humangenberbegruendung", new Item("humangenberbegruendung", "Synthetische Begründung"));
+            therapieplan.setValue("mitempfehlungrebiopsie", new Item("mitempfehlungrebiopsie", rebiopsien > 0));
+            therapieplan.setValue("miteinzelempfehlung", new Item("miteinzelempfehlung", einzelempfehlungen > 0));
+            return therapieplan;
+        }
+
+        private Procedure einzelempfehlung(Procedure therapieplan, Procedure tumorkonferenz, Procedure molekulargenetik) {
+            var einzelempfehlung = procedure(EINZELEMPFEHLUNG, therapieplan.getId());
+            einzelempfehlung.setValue("refosmolekulargenetik", new Item("refosmolekulargenetik", molekulargenetik.getId()));
+            einzelempfehlung.setValue("mtb", new Item("mtb", tumorkonferenz.getId()));
+            // Without date, the date of the referenced MTB is used
+            einzelempfehlung.setValue("ufeedatum", new Item("ufeedatum", random.nextBoolean() ? dateString(14) : ""));
+            einzelempfehlung.setValue("prio", new Item("prio", String.valueOf(1 + random.nextInt(3))));
+            einzelempfehlung.setValue("evidenzlevel", new Item("evidenzlevel", String.valueOf(1 + random.nextInt(8))));
+            einzelempfehlung.setValue("evidenzlevelzusatz", new Item("evidenzlevelzusatz", pick(EVIDENZLEVEL_ZUSATZ)));
+            einzelempfehlung.setValue("wirkstoffejson", new Item("wirkstoffejson", medicationJson(random.nextInt(DISTINCT_MEDICATIONS))));
+            einzelempfehlung.setValue("studienallejson", new Item("studienallejson", String.format("[{\"nct\":\"NCT%08d\"}]", einzelempfehlung.getId())));
+            return einzelempfehlung;
+        }
+
+        private Procedure followUp(Procedure einzelempfehlung) {
+            var start = 20 + random.nextInt(60);
+            var statusKostenuebernahme = pick(STATUS_KOSTENUEBERNAHME);
+
+            var followUp = procedure(FOLLOW_UP, 0);
+            followUp.setValue("LinkTherapieempfehlung", new Item("LinkTherapieempfehlung", einzelempfehlung.getId()));
+            followUp.setValue("DatumFollowUp", new Item("DatumFollowUp", date(start + 30)));
+            followUp.setValue("StatusTherapie", new Item("StatusTherapie", pick(STATUS_THERAPIE)));
+            followUp.setValue("Therapiestart", new Item("Therapiestart", date(start)));
+            followUp.setValue("Dosisdichte", new Item("Dosisdichte", pick(DOSISDICHTE)));
+            followUp.setValue("BestResponse", new Item("BestResponse", pick(BEST_RESPONSE)));
+            followUp.setValue("AntragKostenuebernahme", new Item("AntragKostenuebernahme", "1"));
+            followUp.setValue("AusstellungsdatumAntrag", new Item("AusstellungsdatumAntrag", date(start - 4)));
+            followUp.setValue("DatumAntwortKueAntrag", new Item("DatumAntwortKueAntrag", date(start - 2)));
+            followUp.setValue("StatusKostenuebernahme", new Item("StatusKostenuebernahme", statusKostenuebernahme));
+            if ("rejected".equals(statusKostenuebernahme)) {
+                followUp.setValue("GrundAblehnungKosten", new Item("GrundAblehnungKosten", "e"));
+            }
+            return followUp;
+        }
+
+        private Procedure molekulargenetik() {
+            var molekulargenetik = procedure(MOLEKULARGENETIK, 0);
+            molekulargenetik.setValue("Dokumentation", new Item("Dokumentation", "ERW"));
+            molekulargenetik.setValue("ArtDerSequenzierung", new Item("ArtDerSequenzierung", "PanelKit"));
+            molekulargenetik.setValue("Tumorzellgehalt", new Item("Tumorzellgehalt", 20 + random.nextInt(70)));
+            molekulargenetik.setValue("Entnahmedatum", new Item("Entnahmedatum", dateString(2)));
+            molekulargenetik.setValue("Entnahmemethode", new Item("Entnahmemethode", random.nextBoolean() ? "B" : "R"));
+            molekulargenetik.setValue("Materialfixierung", new Item("Materialfixierung", random.nextBoolean() ? "2" : "3"));
+            molekulargenetik.setValue("Probenmaterial", new Item("Probenmaterial", random.nextBoolean() ? "T" : "M"));
+
+            for (int i = 0; i < untersuchungen; i++) {
+                var position = 55_000_000 + random.nextInt(100_000);
+                var untersuchung = procedure("OS.Molekulargenetische Untersuchung", molekulargenetik.getId());
+                untersuchung.setValue("Ergebnis", new Item("Ergebnis", "P"));
+                untersuchung.setValue("EVChromosom", new Item("EVChromosom", "chr" + (1 + random.nextInt(22))));
+                untersuchung.setValue("EVStart", new Item("EVStart", position));
+                untersuchung.setValue("EVEnde", new Item("EVEnde", position + 1));
+                untersuchung.setValue("EVRefNucleotide", new Item("EVRefNucleotide", "C"));
+                untersuchung.setValue("EVAltNucleotide", new Item("EVAltNucleotide", "T"));
+                untersuchung.setValue("cDNANomenklatur", new Item("cDNANomenklatur", "c.2573T>G"));
+                untersuchung.setValue("ProteinebeneNomenklatur", new Item("ProteinebeneNomenklatur", "p.L858R"));
+                untersuchung.setValue("EVReadDepth", new Item("EVReadDepth", 100 + random.nextInt(900)));
+                untersuchung.setValue("Allelfrequenz", new Item("Allelfrequenz", random.nextDouble()));
+                untersuchung.setValue("EVCOSMICID", new Item("EVCOSMICID", "COSM" + random.nextInt(10_000_000)));
+                untersuchung.setValue("EVdbSNPID", new Item("EVdbSNPID", "rs" + random.nextInt(100_000_000)));
+                untersuchung.setValue("Pathogenitaetsklasse", new Item("Pathogenitaetsklasse", String.valueOf(1 + random.nextInt(5))));
+            }
+
+            return molekulargenetik;
+        }
+
+        private Procedure procedure(String formName, int parentProcedureId) {
+            var procedure = new Procedure(inMemoryApi.api());
+            procedure.setId(nextId++);
+            procedure.setParentProcedureId(parentProcedureId);
+            procedure.setFormName(formName);
+            procedure.setPatient(patient);
+            procedure.addDisease(disease);
+            procedure.setStartDate(date(0));
+            procedure.setEditState(ProcedureEditStateType.COMPLETED);
+
+            inMemoryApi.addProcedure(procedure, disease);
+            return procedure;
+        }
+
+        private <T> T pick(List<T> values) {
+            return values.get(random.nextInt(values.size()));
+        }
+
+        private String pick(String[] values) {
+            return values[random.nextInt(values.length)];
+        }
+    }
+
+}
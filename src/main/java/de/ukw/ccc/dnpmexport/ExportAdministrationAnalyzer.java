@@ -0,0 +1,122 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport;
+
+import de.itc.onkostar.api.Disease;
+import de.itc.onkostar.api.IOnkostarApi;
+import de.itc.onkostar.api.Procedure;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
+import de.ukw.ccc.dnpmexport.services.BackfillService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Provides plugin methods to administrate the DNPM export.
+ * This analyzer is not relevant for any procedure.
+ * <p>
+ * Starting or cancelling a backfill requires the role or permission configured in 'dnpmexport_backfill_role'.
+ * Without this setting no user is allowed to.
+ */
+@Component
+public class ExportAdministrationAnalyzer extends AbstractExportProcedureAnalyzer {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final DnpmExportSettingsProvider settingsProvider;
+
+    private final BackfillService backfillService;
+
+    public ExportAdministrationAnalyzer(
+            final IOnkostarApi onkostarApi,
+            final DnpmExportSettingsProvider settingsProvider,
+            final BackfillService backfillService
+    ) {
+        super(onkostarApi);
+        this.settingsProvider = settingsProvider;
+        this.backfillService = backfillService;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Verwaltung des DNPM-Exports";
+    }
+
+    @Override
+    public boolean isRelevantForAnalyzer(Procedure procedure, Disease disease) {
+        return false;
+    }
+
+    @Override
+    public void analyze(Procedure procedure, Disease disease) {
+        // Nothing to do
+    }
+
+    /**
+     * Starts export of all 'DNPM Klinik/Anamnese' procedures
+     *
+     * @param data Optional entries 'resume' to continue an interrupted backfill and 'force' to send unchanged MTBFiles
+     * @return Status of the backfill
+     */
+    public Map<String, Object> startBackfill(Map<String, Object> data) {
+        checkBackfillPermission();
+        backfillService.start(isTrue(data, "resume"), isTrue(data, "force"));
+        return backfillService.getStatus();
+    }
+
+    public Map<String, Object> getBackfillStatus(Map<String, Object> data) {
+        return backfillService.getStatus();
+    }
+
+    public Map<String, Object> cancelBackfill(Map<String, Object> data) {
+        checkBackfillPermission();
+        backfillService.cancel();
+        return backfillService.getStatus();
+    }
+
+    /**
+     * Checks the roles and permissions of the current Onkostar user
+     *
+     * @throws AccessDeniedException if the user does not have the configured role or permission
+     */
+    private void checkBackfillPermission() {
+        var role = settingsProvider.get().getBackfillRole();
+        var authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (null == role || null == authentication || !authentication.isAuthenticated()
+                || authentication.getAuthorities().stream().noneMatch(authority -> role.equals(authority.getAuthority()))) {
+            logger.warn("Backfill denied for user '{}'", null == authentication ? null : authentication.getName());
+            throw new AccessDeniedException("Keine Berechtigung zur Verwaltung des DNPM-Exports");
+        }
+    }
+
+    private static boolean isTrue(Map<String, Object> data, String key) {
+        return null != data && null != data.get(key) && Boolean.parseBoolean(data.get(key).toString());
+    }
+
+}
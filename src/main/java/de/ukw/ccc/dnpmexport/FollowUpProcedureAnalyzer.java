@@ -27,7 +27,7 @@ package de.ukw.ccc.dnpmexport;
 import de.itc.onkostar.api.Disease;
 import de.itc.onkostar.api.IOnkostarApi;
 import de.itc.onkostar.api.Procedure;
-import de.ukw.ccc.dnpmexport.services.DnpmExportService;
+import de.ukw.ccc.dnpmexport.services.ExportQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -37,14 +37,14 @@ public class FollowUpProcedureAnalyzer extends AbstractExportProcedureAnalyzer {
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
-    private final DnpmExportService dnpmExportService;
+    private final ExportQueue exportQueue;
 
     public FollowUpProcedureAnalyzer(
             final IOnkostarApi onkostarApi,
-            final DnpmExportService dnpmExportService
+            final ExportQueue exportQueue
     ) {
         super(onkostarApi);
-        this.dnpmExportService = dnpmExportService;
+        this.exportQueue = exportQueue;
     }
 
     @Override
@@ -56,7 +56,7 @@ public class FollowUpProcedureAnalyzer extends AbstractExportProcedureAnalyzer {
     public void analyze(Procedure procedure, Disease disease) {
         logger.info("Run 'analyze()'");
 
-        this.dnpmExportService.export(procedure);
+        this.exportQueue.submit(procedure);
     }
 
 }
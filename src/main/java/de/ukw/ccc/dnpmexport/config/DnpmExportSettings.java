@@ -0,0 +1,326 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.config;
+
+import de.itc.onkostar.api.IOnkostarApi;
+
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Immutable snapshot of all 'dnpmexport_*' global settings with parsed values.
+ * <p>
+ * Settings used by each export are read again by {@link #reload(IOnkostarApi)}. All other settings, e.g. for the
+ * HTTP connection, the export queue and the outbox, are used at startup only and kept from the first snapshot.
+ * <p>
+ * Missing or invalid values are replaced by their defaults.
+ */
+public class DnpmExportSettings {
+
+    public static final int DEFAULT_OUTBOX_RETRY_INITIAL_MILLIS = 1_000;
+    public static final int DEFAULT_OUTBOX_RETRY_MAX_MILLIS = 600_000;
+    public static final int DEFAULT_OUTBOX_MAX_ATTEMPTS = 100;
+    public static final int DEFAULT_EXPORT_WORKERS = 2;
+    public static final int DEFAULT_EXPORT_QUEUE_SIZE = 100;
+    public static final int DEFAULT_EXPORT_SHUTDOWN_TIMEOUT_SECONDS = 30;
+    public static final int DEFAULT_EXPORT_QUIET_PERIOD_MILLIS = 2_000;
+    public static final int DEFAULT_MAPPING_PARALLELISM = 1;
+    public static final int DEFAULT_HTTP_CONNECT_TIMEOUT_MILLIS = 10_000;
+    public static final int DEFAULT_HTTP_READ_TIMEOUT_MILLIS = 60_000;
+    public static final int DEFAULT_HTTP_GZIP_MIN_SIZE = 1024;
+    public static final int DEFAULT_HTTP_CHUNK_SIZE = 8192;
+    public static final int DEFAULT_BACKFILL_PARALLELISM = 1;
+    public static final int DEFAULT_BACKFILL_BATCH_SIZE = 50;
+    public static final int DEFAULT_BACKFILL_RATE = 10;
+
+    private final String exportUrl;
+    private final String prefix;
+    private final boolean exportConsentRejected;
+    private final boolean skipUnchanged;
+    private final boolean exportLog;
+    private final boolean apiProfiling;
+
+    private final StartupSettings startup;
+
+    private DnpmExportSettings(final IOnkostarApi onkostarApi, final StartupSettings startup) {
+        this.exportUrl = onkostarApi.getGlobalSetting("dnpmexport_url");
+        this.prefix = onkostarApi.getGlobalSetting("dnpmexport_prefix");
+        this.exportConsentRejected = "true".equals(onkostarApi.getGlobalSetting("dnpmexport_export_consent_rejected"));
+        this.skipUnchanged = !"false".equals(onkostarApi.getGlobalSetting("dnpmexport_skip_unchanged"));
+        this.exportLog = "true".equals(onkostarApi.getGlobalSetting("dnpmexport_export_log"));
+        this.apiProfiling = "true".equals(onkostarApi.getGlobalSetting("dnpmexport_api_profiling"));
+        this.startup = startup;
+    }
+
+    /**
+     * Reads all settings from Onkostar
+     *
+     * @param onkostarApi The Onkostar API
+     * @return New settings snapshot
+     */
+    public static DnpmExportSettings load(final IOnkostarApi onkostarApi) {
+        return new DnpmExportSettings(onkostarApi, new StartupSettings(onkostarApi));
+    }
+
+    /**
+     * Reads the settings used by each export from Onkostar again and keeps all settings used at startup only
+     *
+     * @param onkostarApi The Onkostar API
+     * @return New settings snapshot
+     */
+    public DnpmExportSettings reload(final IOnkostarApi onkostarApi) {
+        return new DnpmExportSettings(onkostarApi, startup);
+    }
+
+    /**
+     * The URL of the remote system as configured, might not be a valid URI
+     *
+     * @return The configured URL or null
+     */
+    public String getExportUrl() {
+        return exportUrl;
+    }
+
+    /**
+     * The prefix used for pseudonyms
+     *
+     * @return The configured prefix or null
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public boolean isExportConsentRejected() {
+        return exportConsentRejected;
+    }
+
+    public boolean isSkipUnchanged() {
+        return skipUnchanged;
+    }
+
+    public Optional<Path> getDataDir() {
+        return Optional.ofNullable(startup.dataDir);
+    }
+
+    public int getOutboxRetryInitialMillis() {
+        return startup.outboxRetryInitialMillis;
+    }
+
+    public int getOutboxRetryMaxMillis() {
+        return startup.outboxRetryMaxMillis;
+    }
+
+    public int getOutboxMaxAttempts() {
+        return startup.outboxMaxAttempts;
+    }
+
+    public int getExportWorkers() {
+        return startup.exportWorkers;
+    }
+
+    public int getExportQueueSize() {
+        return startup.exportQueueSize;
+    }
+
+    public int getExportShutdownTimeoutSeconds() {
+        return startup.exportShutdownTimeoutSeconds;
+    }
+
+    public int getExportQuietPeriodMillis() {
+        return startup.exportQuietPeriodMillis;
+    }
+
+    /**
+     * Number of threads used to map independent sections of a single MTBFile, 1 to map sequentially.
+     * Values greater than 1 require the Onkostar API and its Hibernate session to be thread-safe.
+     *
+     * @return The configured parallelism
+     */
+    public int getMappingParallelism() {
+        return startup.mappingParallelism;
+    }
+
+    public int getHttpConnectTimeoutMillis() {
+        return startup.httpConnectTimeoutMillis;
+    }
+
+    public int getHttpReadTimeoutMillis() {
+        return startup.httpReadTimeoutMillis;
+    }
+
+    public boolean isJdkHttpClient() {
+        return startup.jdkHttpClient;
+    }
+
+    public boolean isHttp2() {
+        return startup.http2;
+    }
+
+    public boolean isHttpGzip() {
+        return startup.httpGzip;
+    }
+
+    public int getHttpGzipMinSize() {
+        return startup.httpGzipMinSize;
+    }
+
+    public boolean isHttpStreaming() {
+        return startup.httpStreaming;
+    }
+
+    public int getHttpChunkSize() {
+        return startup.httpChunkSize;
+    }
+
+    public int getBackfillParallelism() {
+        return startup.backfillParallelism;
+    }
+
+    public int getBackfillBatchSize() {
+        return startup.backfillBatchSize;
+    }
+
+    public int getBackfillRate() {
+        return startup.backfillRate;
+    }
+
+    /**
+     * The role or permission required to start or cancel a backfill
+     *
+     * @return The configured role or null if no user is allowed to
+     */
+    public String getBackfillRole() {
+        return startup.backfillRole;
+    }
+
+    public boolean isCatalogueVersionsPreload() {
+        return startup.catalogueVersionsPreload;
+    }
+
+    /**
+     * Log timings, Onkostar API calls and outcome of each export as a single line
+     *
+     * @return true if a line should be logged for each export
+     */
+    public boolean isExportLog() {
+        return exportLog;
+    }
+
+    /**
+     * Time each Onkostar API method and detect identical calls within one export
+     *
+     * @return true if Onkostar API calls should be profiled
+     */
+    public boolean isApiProfiling() {
+        return apiProfiling;
+    }
+
+    /**
+     * Settings used at startup only
+     */
+    private static class StartupSettings {
+        private final Path dataDir;
+        private final int outboxRetryInitialMillis;
+        private final int outboxRetryMaxMillis;
+        private final int outboxMaxAttempts;
+        private final int exportWorkers;
+        private final int exportQueueSize;
+        private final int exportShutdownTimeoutSeconds;
+        private final int exportQuietPeriodMillis;
+        private final int mappingParallelism;
+        private final int httpConnectTimeoutMillis;
+        private final int httpReadTimeoutMillis;
+        private final boolean jdkHttpClient;
+        private final boolean http2;
+        private final boolean httpGzip;
+        private final int httpGzipMinSize;
+        private final boolean httpStreaming;
+        private final int httpChunkSize;
+        private final int backfillParallelism;
+        private final int backfillBatchSize;
+        private final int backfillRate;
+        private final String backfillRole;
+        private final boolean catalogueVersionsPreload;
+
+        private StartupSettings(final IOnkostarApi onkostarApi) {
+            this.dataDir = pathSetting(onkostarApi, "dnpmexport_data_dir");
+            this.outboxRetryInitialMillis = intSetting(onkostarApi, "dnpmexport_outbox_retry_initial", DEFAULT_OUTBOX_RETRY_INITIAL_MILLIS, 1);
+            this.outboxRetryMaxMillis = intSetting(onkostarApi, "dnpmexport_outbox_retry_max", DEFAULT_OUTBOX_RETRY_MAX_MILLIS, 1);
+            this.outboxMaxAttempts = intSetting(onkostarApi, "dnpmexport_outbox_max_attempts", DEFAULT_OUTBOX_MAX_ATTEMPTS, 1);
+            this.exportWorkers = intSetting(onkostarApi, "dnpmexport_export_workers", DEFAULT_EXPORT_WORKERS, 1);
+            this.exportQueueSize = intSetting(onkostarApi, "dnpmexport_export_queue_size", DEFAULT_EXPORT_QUEUE_SIZE, 1);
+            this.exportShutdownTimeoutSeconds = intSetting(onkostarApi, "dnpmexport_export_shutdown_timeout", DEFAULT_EXPORT_SHUTDOWN_TIMEOUT_SECONDS, 1);
+            this.exportQuietPeriodMillis = intSetting(onkostarApi, "dnpmexport_export_quiet_period", DEFAULT_EXPORT_QUIET_PERIOD_MILLIS, 0);
+            this.mappingParallelism = intSetting(onkostarApi, "dnpmexport_mapping_parallelism", DEFAULT_MAPPING_PARALLELISM, 1);
+            this.httpConnectTimeoutMillis = intSetting(onkostarApi, "dnpmexport_http_connect_timeout", DEFAULT_HTTP_CONNECT_TIMEOUT_MILLIS, 1);
+            this.httpReadTimeoutMillis = intSetting(onkostarApi, "dnpmexport_http_read_timeout", DEFAULT_HTTP_READ_TIMEOUT_MILLIS, 1);
+            this.jdkHttpClient = "jdk".equalsIgnoreCase(onkostarApi.getGlobalSetting("dnpmexport_http_client"));
+            this.http2 = "true".equals(onkostarApi.getGlobalSetting("dnpmexport_http2"));
+            this.httpGzip = "true".equals(onkostarApi.getGlobalSetting("dnpmexport_http_gzip"));
+            this.httpGzipMinSize = intSetting(onkostarApi, "dnpmexport_http_gzip_min_size", DEFAULT_HTTP_GZIP_MIN_SIZE, 1);
+            this.httpStreaming = "true".equals(onkostarApi.getGlobalSetting("dnpmexport_http_streaming"));
+            this.httpChunkSize = intSetting(onkostarApi, "dnpmexport_http_chunk_size", DEFAULT_HTTP_CHUNK_SIZE, 1);
+            this.backfillParallelism = intSetting(onkostarApi, "dnpmexport_backfill_parallelism", DEFAULT_BACKFILL_PARALLELISM, 1);
+            this.backfillBatchSize = intSetting(onkostarApi, "dnpmexport_backfill_batch_size", DEFAULT_BACKFILL_BATCH_SIZE, 1);
+            this.backfillRate = intSetting(onkostarApi, "dnpmexport_backfill_rate", DEFAULT_BACKFILL_RATE, 0);
+            this.backfillRole = stringSetting(onkostarApi, "dnpmexport_backfill_role");
+            this.catalogueVersionsPreload = "true".equals(onkostarApi.getGlobalSetting("dnpmexport_catalogue_preload"));
+        }
+    }
+
+    private static int intSetting(IOnkostarApi onkostarApi, String name, int defaultValue, int minValue) {
+        var value = onkostarApi.getGlobalSetting(name);
+        if (null == value || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            var result = Integer.parseInt(value.trim());
+            return result >= minValue ? result : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static String stringSetting(IOnkostarApi onkostarApi, String name) {
+        var value = onkostarApi.getGlobalSetting(name);
+        if (null == value || value.isBlank()) {
+            return null;
+        }
+        return value.trim();
+    }
+
+    private static Path pathSetting(IOnkostarApi onkostarApi, String name) {
+        var value = onkostarApi.getGlobalSetting(name);
+        if (null == value || value.isBlank()) {
+            return null;
+        }
+        try {
+            return Path.of(value.trim());
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+}
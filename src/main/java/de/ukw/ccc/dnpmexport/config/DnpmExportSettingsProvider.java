@@ -0,0 +1,74 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.config;
+
+import de.itc.onkostar.api.IOnkostarApi;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Provides the current {@link DnpmExportSettings}.
+ * Settings used by each export are read from Onkostar again if the last snapshot is older than ten seconds,
+ * settings used at startup only are read once.
+ */
+@Component
+public class DnpmExportSettingsProvider {
+
+    static final long TIME_TO_LIVE_NANOS = Duration.ofSeconds(10).toNanos();
+
+    private final IOnkostarApi onkostarApi;
+
+    private volatile DnpmExportSettings settings;
+
+    private volatile long loadedAt;
+
+    public DnpmExportSettingsProvider(final IOnkostarApi onkostarApi) {
+        this.onkostarApi = onkostarApi;
+    }
+
+    /**
+     * Returns the current settings snapshot
+     *
+     * @return The settings
+     */
+    public DnpmExportSettings get() {
+        var current = settings;
+        if (null != current && System.nanoTime() - loadedAt < TIME_TO_LIVE_NANOS) {
+            return current;
+        }
+        synchronized (this) {
+            if (null == settings) {
+                settings = DnpmExportSettings.load(onkostarApi);
+                loadedAt = System.nanoTime();
+            } else if (System.nanoTime() - loadedAt >= TIME_TO_LIVE_NANOS) {
+                settings = settings.reload(onkostarApi);
+                loadedAt = System.nanoTime();
+            }
+            return settings;
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.config;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@link ClientHttpRequestFactory} compressing request bodies using GZIP.
+ * <p>
+ * Request bodies are compressed only if they exceed the given minimum size. Up to this size the body is kept back,
+ * afterwards it is compressed and written to the request created by the delegate factory.
+ */
+public class GzipClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+    private final ClientHttpRequestFactory delegate;
+
+    private final int minSize;
+
+    public GzipClientHttpRequestFactory(final ClientHttpRequestFactory delegate, final int minSize) {
+        this.delegate = delegate;
+        this.minSize = minSize;
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+        return new GzipClientHttpRequest(delegate.createRequest(uri, httpMethod), minSize);
+    }
+
+    private static class GzipClientHttpRequest implements ClientHttpRequest {
+
+        private final ClientHttpRequest request;
+
+        private final int minSize;
+
+        private ThresholdOutputStream body;
+
+        GzipClientHttpRequest(final ClientHttpRequest request, final int minSize) {
+            this.request = request;
+            this.minSize = minSize;
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return request.getMethod();
+        }
+
+        @Override
+        public URI getURI() {
+            return request.getURI();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return request.getHeaders();
+        }
+
+        @Override
+        public OutputStream getBody() {
+            if (null == body) {
+                body = new ThresholdOutputStream();
+            }
+            return body;
+        }
+
+        @Override
+        public ClientHttpResponse execute() throws IOException {
+            if (null != body) {
+                body.finish();
+            }
+            return request.execute();
+        }
+
+        /**
+         * Keeps back written bytes until the minimum size is exceeded, then switches to compressed output
+         */
+        private class ThresholdOutputStream extends OutputStream {
+
+            private ByteArrayOutputStream buffer = new ByteArrayOutputStream(minSize);
+
+            private GZIPOutputStream gzip;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                if (null == gzip && buffer.size() + length > minSize) {
+                    startCompression();
+                }
+                if (null == gzip) {
+                    buffer.write(bytes, offset, length);
+                } else {
+                    gzip.write(bytes, offset, length);
+                }
+            }
+
+            private void startCompression() throws IOException {
+                var headers = request.getHeaders();
+                headers.remove(HttpHeaders.CONTENT_LENGTH);
+                headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+                gzip = new GZIPOutputStream(request.getBody(), 8192);
+                buffer.writeTo(gzip);
+                buffer = null;
+            }
+
+            void finish() throws IOException {
+                if (null == gzip) {
+                    buffer.writeTo(request.getBody());
+                } else {
+                    gzip.finish();
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.config;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.AbstractClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+class JdkClientHttpRequest extends AbstractClientHttpRequest {
+
+    // Headers set by the HTTP client itself and not allowed to be set by request
+    private static final Set<String> RESTRICTED_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        RESTRICTED_HEADERS.addAll(Set.of("Connection", "Content-Length", "Expect", "Host", "Upgrade"));
+    }
+
+    private final HttpClient httpClient;
+
+    private final URI uri;
+
+    private final HttpMethod method;
+
+    private final Duration timeout;
+
+    private final int chunkSize;
+
+    private ByteArrayOutputStream body;
+
+    private OutputStream streamingBody;
+
+    private CompletableFuture<HttpResponse<InputStream>> streamingResponse;
+
+    /**
+     * Creates a new request
+     *
+     * @param chunkSize Size of chunks to stream request body in, 0 to buffer request body and send it at once
+     */
+    JdkClientHttpRequest(final HttpClient httpClient, final URI uri, final HttpMethod method, final Duration timeout, final int chunkSize) {
+        this.httpClient = httpClient;
+        this.uri = uri;
+        this.method = method;
+        this.timeout = timeout;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public HttpMethod getMethod() {
+        return method;
+    }
+
+    @Override
+    public URI getURI() {
+        return uri;
+    }
+
+    @Override
+    protected OutputStream getBodyInternal(HttpHeaders headers) {
+        if (chunkSize <= 0) {
+            if (null == body) {
+                body = new ByteArrayOutputStream(1024);
+            }
+            return body;
+        }
+
+        if (null == streamingBody) {
+            // Headers are sent now, the request body is sent while it is written
+            var pipe = new PipedRequestBody(chunkSize, timeout);
+            streamingResponse = httpClient.sendAsync(
+                    request(headers, HttpRequest.BodyPublishers.ofInputStream(pipe::inputStream)),
+                    HttpResponse.BodyHandlers.ofInputStream()
+            );
+            streamingResponse.whenComplete((response, e) -> pipe.abort());
+            streamingBody = pipe.outputStream();
+        }
+        return streamingBody;
+    }
+
+    @Override
+    protected ClientHttpResponse executeInternal(HttpHeaders headers) throws IOException {
+        try {
+            if (null != streamingBody) {
+                streamingBody.close();
+                return new JdkClientHttpResponse(streamingResponse.get());
+            }
+            return new JdkClientHttpResponse(httpClient.send(request(headers, bodyPublisher()), HttpResponse.BodyHandlers.ofInputStream()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Request to " + uri + " interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Request to " + uri + " failed", e.getCause());
+        }
+    }
+
+    private HttpRequest request(HttpHeaders headers, HttpRequest.BodyPublisher bodyPublisher) {
+        var builder = HttpRequest.newBuilder(uri)
+                .timeout(timeout)
+                .method(method.name(), bodyPublisher);
+
+        headers.forEach((name, values) -> {
+            if (!RESTRICTED_HEADERS.contains(name)) {
+                values.forEach(value -> builder.header(name, value));
+            }
+        });
+
+        return builder.build();
+    }
+
+    private HttpRequest.BodyPublisher bodyPublisher() {
+        return null == body || body.size() == 0
+                ? HttpRequest.BodyPublishers.noBody()
+                : HttpRequest.BodyPublishers.ofByteArray(body.toByteArray());
+    }
+
+}
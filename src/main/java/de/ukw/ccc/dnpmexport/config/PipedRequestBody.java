@@ -0,0 +1,187 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands over a request body written by the calling thread in chunks to the HTTP client reading it.
+ * <p>
+ * At most a few chunks are held in memory, the writer waits until the HTTP client has sent previous chunks.
+ */
+class PipedRequestBody {
+
+    private static final int MAX_PENDING_CHUNKS = 4;
+
+    private static final byte[] EOF = new byte[0];
+
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(MAX_PENDING_CHUNKS);
+
+    private final int chunkSize;
+
+    private final long timeoutMillis;
+
+    private volatile boolean aborted;
+
+    PipedRequestBody(final int chunkSize, final Duration timeout) {
+        this.chunkSize = chunkSize;
+        this.timeoutMillis = timeout.toMillis();
+    }
+
+    /**
+     * Stops waiting writers, e.g. if the request has already failed
+     */
+    void abort() {
+        aborted = true;
+    }
+
+    OutputStream outputStream() {
+        return new ChunkOutputStream();
+    }
+
+    InputStream inputStream() {
+        return new ChunkInputStream();
+    }
+
+    private void put(byte[] chunk) throws IOException {
+        var deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            while (!chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                if (aborted) {
+                    throw new IOException("Request aborted while writing request body");
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Timeout while writing request body");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing request body");
+        }
+    }
+
+    private class ChunkOutputStream extends OutputStream {
+
+        private byte[] buffer = new byte[chunkSize];
+
+        private int count;
+
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                var n = Math.min(length, buffer.length - count);
+                System.arraycopy(bytes, offset, buffer, count, n);
+                count += n;
+                offset += n;
+                length -= n;
+                if (count == buffer.length) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count > 0) {
+                var chunk = count == buffer.length ? buffer : Arrays.copyOf(buffer, count);
+                put(chunk);
+                buffer = new byte[chunkSize];
+                count = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                flush();
+                put(EOF);
+            }
+        }
+    }
+
+    private class ChunkInputStream extends InputStream {
+
+        private byte[] chunk;
+
+        private int position;
+
+        @Override
+        public int read() throws IOException {
+            var b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (null == chunk || position == chunk.length) {
+                if (chunk == EOF) {
+                    return -1;
+                }
+                chunk = take();
+                position = 0;
+                if (chunk == EOF) {
+                    return -1;
+                }
+            }
+            var n = Math.min(length, chunk.length - position);
+            System.arraycopy(chunk, position, bytes, offset, n);
+            position += n;
+            return n;
+        }
+
+        private byte[] take() throws IOException {
+            try {
+                var result = chunks.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+                if (null == result) {
+                    throw new IOException("Timeout while reading request body");
+                }
+                return result;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading request body");
+            }
+        }
+    }
+
+}
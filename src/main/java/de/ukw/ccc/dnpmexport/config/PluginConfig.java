@@ -22,14 +22,51 @@ package de.ukw.ccc.dnpmexport.config;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
+import java.time.Duration;
+
 @Configuration
 public class PluginConfig {
 
+    /**
+     * RestTemplate used for POST and DELETE requests to the remote system.
+     * The HTTP transport is configured by global settings when the plugin is started.
+     */
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public RestTemplate restTemplate(final DnpmExportSettingsProvider settingsProvider) {
+        var settings = settingsProvider.get();
+        var requestFactory = clientHttpRequestFactory(settings);
+        if (settings.isHttpGzip()) {
+            requestFactory = new GzipClientHttpRequestFactory(requestFactory, settings.getHttpGzipMinSize());
+        }
+        return new RestTemplate(requestFactory);
+    }
+
+    static ClientHttpRequestFactory clientHttpRequestFactory(final DnpmExportSettings settings) {
+        // Stream request body while it is serialized instead of keeping the whole document in memory
+        var chunkSize = settings.isHttpStreaming() ? settings.getHttpChunkSize() : 0;
+
+        if (settings.isJdkHttpClient()) {
+            return new JdkClientHttpRequestFactory(
+                    Duration.ofMillis(settings.getHttpConnectTimeoutMillis()),
+                    Duration.ofMillis(settings.getHttpReadTimeoutMillis()),
+                    settings.isHttp2(),
+                    chunkSize
+            );
+        }
+
+        // Uses JDK HttpURLConnection, connections are kept alive and reused by the JDK
+        var requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(settings.getHttpConnectTimeoutMillis());
+        requestFactory.setReadTimeout(settings.getHttpReadTimeoutMillis());
+        if (chunkSize > 0) {
+            requestFactory.setBufferRequestBody(false);
+            requestFactory.setChunkSize(chunkSize);
+        }
+        return requestFactory;
     }
 
 }
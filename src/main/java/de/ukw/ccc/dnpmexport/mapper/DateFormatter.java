@@ -0,0 +1,70 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.mapper;
+
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+/**
+ * Formats dates as ISO local date ({@code yyyy-MM-dd}) using a shared immutable formatter.
+ * <p>
+ * The result is identical to {@code new SimpleDateFormat("yyyy-MM-dd").format(date)} using the default time zone.
+ * Dates before the gregorian cutover or beyond year 9999 are formatted using {@link SimpleDateFormat},
+ * since ISO chronology differs for these.
+ */
+public final class DateFormatter {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE;
+
+    private static final long GREGORIAN_CUTOVER_MILLIS = new GregorianCalendar().getGregorianChange().getTime();
+
+    private static final int MAX_YEAR = 9999;
+
+    private DateFormatter() {
+    }
+
+    /**
+     * Formats given date
+     *
+     * @param date The date, including {@link java.sql.Date}
+     * @return The formatted date
+     */
+    public static String format(Date date) {
+        // Use epoch millis - java.sql.Date does not support toInstant()
+        final var millis = date.getTime();
+        if (millis >= GREGORIAN_CUTOVER_MILLIS) {
+            final var localDate = Instant.ofEpochMilli(millis).atZone(ZoneId.systemDefault()).toLocalDate();
+            if (localDate.getYear() <= MAX_YEAR) {
+                return FORMATTER.format(localDate);
+            }
+        }
+        return new SimpleDateFormat("yyyy-MM-dd").format(date);
+    }
+
+}
@@ -42,7 +42,7 @@ public class DiseaseToDiagnoseMapper implements Mapper<Disease, Optional<Diagnos
         var builder = Diagnosis.builder()
                 .withId(mapperUtils.anonymizeId(disease.getId().toString()))
                 .withPatient(getPatientId(disease))
-                .withRecordedOn(dateFormat().format(disease.getDiagnosisDate()));
+                .withRecordedOn(formatDate(disease.getDiagnosisDate()));
 
         mapperUtils.getIcd10(disease).ifPresent(builder::withIcd10);
         mapperUtils.getIcdO3T(disease).ifPresent(builder::withIcdO3T);
@@ -0,0 +1,282 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.mapper;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Timings, Onkostar API calls, payload size and outcome of a single export.
+ * <p>
+ * A trace is created with each {@link ProcedureGraph} and may be recorded from all threads taking part in the export.
+ * Stage timings may overlap: time spent in Onkostar API calls is recorded as stage {@value #STAGE_GRAPH}
+ * and is also part of the stage of the mapper requesting the procedures.
+ * <p>
+ * If Onkostar API calls are profiled, the time spent per method and the number of duplicate calls are recorded.
+ * A call is a duplicate if a call of the same method with equal arguments has been recorded before.
+ */
+public class ExportTrace {
+
+    public static final String STAGE_GRAPH = "graph";
+    public static final String STAGE_SERIALIZATION = "serialization";
+    public static final String STAGE_HTTP = "http";
+
+    public enum Outcome {
+        /** MTBFile has been sent to the remote system */
+        SENT,
+        /** MTBFile has been written to the outbox to be sent */
+        QUEUED,
+        /** MTBFile is unchanged since last export and has not been sent */
+        UNCHANGED,
+        /** Patient data has been requested to be deleted, there is no consent */
+        DELETED,
+        /** MTBFile has not been sent, there is no consent */
+        NO_CONSENT,
+        /** Nothing to export, e.g. no related Klinik/Anamnese procedure or incomplete data */
+        SKIPPED,
+        /** Export failed */
+        FAILED
+    }
+
+    private final long startNanos = System.nanoTime();
+
+    private final Map<String, LongAdder> stageNanos = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> apiCalls = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> apiNanos = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> duplicateApiCalls = new ConcurrentHashMap<>();
+
+    private final Set<List<Object>> profiledApiCalls = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean profiled;
+
+    private volatile long durationNanos = -1;
+
+    private volatile long payloadBytes;
+
+    private volatile Outcome outcome;
+
+    private volatile Integer klinikAnamneseId;
+
+    /**
+     * Runs given supplier and adds the elapsed time to given stage
+     *
+     * @param stage    The name of the stage
+     * @param supplier The supplier to be run
+     * @param <T>      The result type
+     * @return The result of the supplier
+     */
+    public <T> T time(String stage, Supplier<T> supplier) {
+        final var start = System.nanoTime();
+        try {
+            return supplier.get();
+        } finally {
+            addStageNanos(stage, System.nanoTime() - start);
+        }
+    }
+
+    public void addStageNanos(String stage, long nanos) {
+        stageNanos.computeIfAbsent(stage, s -> new LongAdder()).add(nanos);
+    }
+
+    /**
+     * Records a call of an Onkostar API method. The time is added to stage {@value #STAGE_GRAPH}.
+     *
+     * @param method The name of the called method
+     * @param nanos  The time spent in the call
+     */
+    public void addApiCall(String method, long nanos) {
+        apiCalls.computeIfAbsent(method, m -> new LongAdder()).increment();
+        addStageNanos(STAGE_GRAPH, nanos);
+    }
+
+    /**
+     * Records a profiled call of an Onkostar API method. The call is counted as duplicate
+     * if there has been a call of the same method with equal arguments before.
+     *
+     * @param method    The name of the called method
+     * @param arguments The arguments of the call
+     * @param nanos     The time spent in the call
+     */
+    public void addProfiledApiCall(String method, List<Object> arguments, long nanos) {
+        profiled = true;
+        addApiCall(method, nanos);
+        apiNanos.computeIfAbsent(method, m -> new LongAdder()).add(nanos);
+        if (!profiledApiCalls.add(List.of(method, arguments))) {
+            duplicateApiCalls.computeIfAbsent(method, m -> new LongAdder()).increment();
+        }
+    }
+
+    public void setPayloadBytes(long payloadBytes) {
+        this.payloadBytes = payloadBytes;
+    }
+
+    public void setOutcome(Outcome outcome) {
+        this.outcome = outcome;
+    }
+
+    public void setKlinikAnamneseId(Integer klinikAnamneseId) {
+        this.klinikAnamneseId = klinikAnamneseId;
+    }
+
+    /**
+     * Stops the clock of this export. An export without outcome is considered to be skipped.
+     */
+    public void finish() {
+        if (durationNanos < 0) {
+            durationNanos = System.nanoTime() - startNanos;
+        }
+        if (null == outcome) {
+            outcome = Outcome.SKIPPED;
+        }
+    }
+
+    /**
+     * The duration of the finished export or the time elapsed since start of a running export
+     *
+     * @return The duration in nanoseconds
+     */
+    public long getDurationNanos() {
+        var result = durationNanos;
+        return result < 0 ? System.nanoTime() - startNanos : result;
+    }
+
+    /**
+     * Time spent per stage
+     *
+     * @return Nanoseconds by stage name, sorted by stage name
+     */
+    public Map<String, Long> getStageNanos() {
+        return snapshot(stageNanos);
+    }
+
+    /**
+     * Number of Onkostar API calls per method
+     *
+     * @return Number of calls by method name, sorted by method name
+     */
+    public Map<String, Long> getApiCalls() {
+        return snapshot(apiCalls);
+    }
+
+    public long getApiCallCount() {
+        return apiCalls.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    /**
+     * Whether Onkostar API calls of this export have been profiled
+     *
+     * @return true if profiled
+     */
+    public boolean isProfiled() {
+        return profiled;
+    }
+
+    /**
+     * Time spent per Onkostar API method, if profiled
+     *
+     * @return Nanoseconds by method name, sorted by method name
+     */
+    public Map<String, Long> getApiNanos() {
+        return snapshot(apiNanos);
+    }
+
+    /**
+     * Number of duplicate Onkostar API calls per method, if profiled
+     *
+     * @return Number of duplicate calls by method name, sorted by method name
+     */
+    public Map<String, Long> getDuplicateApiCalls() {
+        return snapshot(duplicateApiCalls);
+    }
+
+    public long getDuplicateApiCallCount() {
+        return duplicateApiCalls.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    /**
+     * Ratio of duplicate calls to all Onkostar API calls, if profiled
+     *
+     * @return The redundancy ratio between 0 and 1
+     */
+    public double getRedundancyRatio() {
+        var calls = getApiCallCount();
+        return calls == 0 ? 0 : (double) getDuplicateApiCallCount() / calls;
+    }
+
+    public long getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public Integer getKlinikAnamneseId() {
+        return klinikAnamneseId;
+    }
+
+    /**
+     * Single line of space separated key-value pairs to be logged
+     *
+     * @return The log line
+     */
+    public String toLogLine() {
+        var result = new StringBuilder("export");
+        result.append(" klinikanamnese=").append(klinikAnamneseId);
+        result.append(" outcome=").append(outcome);
+        result.append(" duration_ms=").append(millis(getDurationNanos()));
+        result.append(" payload_bytes=").append(payloadBytes);
+        result.append(" api_calls=").append(getApiCallCount());
+        getStageNanos().forEach((stage, nanos) -> result.append(" stage.").append(stage).append("_ms=").append(millis(nanos)));
+        getApiCalls().forEach((method, calls) -> result.append(" api.").append(method).append('=').append(calls));
+        if (profiled) {
+            result.append(" api_duplicates=").append(getDuplicateApiCallCount());
+            result.append(" api_redundancy=").append(String.format(Locale.ROOT, "%.3f", getRedundancyRatio()));
+            getApiNanos().forEach((method, nanos) -> result.append(" api.").append(method).append("_ms=").append(millis(nanos)));
+            getDuplicateApiCalls().forEach((method, calls) -> result.append(" api.").append(method).append("_duplicates=").append(calls));
+        }
+        return result.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    private static Map<String, Long> snapshot(Map<String, LongAdder> values) {
+        var result = new TreeMap<String, Long>();
+        values.forEach((key, value) -> result.put(key, value.sum()));
+        return result;
+    }
+
+}
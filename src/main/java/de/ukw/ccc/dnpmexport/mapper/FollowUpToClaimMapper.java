@@ -56,7 +56,7 @@ public class FollowUpToClaimMapper extends FollowUpMapper<Optional<Claim>> {
 
         var issuedOn = procedure.getValue(FIELD_NAME_ISSUED_ON);
         if (null != issuedOn && null != issuedOn.getDate()) {
-            builder.withIssuedOn(dateFormat().format(issuedOn.getDate()));
+            builder.withIssuedOn(formatDate(issuedOn.getDate()));
         }
 
         var therapyId = procedure.getValue(FIELD_NAME_THERAPY);
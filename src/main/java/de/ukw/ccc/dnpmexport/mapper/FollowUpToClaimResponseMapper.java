@@ -59,7 +59,7 @@ public class FollowUpToClaimResponseMapper extends FollowUpMapper<Optional<Claim
 
         var issuedOn = procedure.getValue(FIELD_NAME_ISSUED_ON);
         if (null != issuedOn && null != issuedOn.getDate()) {
-            builder.withIssuedOn(dateFormat().format(issuedOn.getDate()));
+            builder.withIssuedOn(formatDate(issuedOn.getDate()));
         } else {
             logger.warn("Skip FollowUp {}: No value for 'Datum_AntwortKueAntrag'", procedure.getId());
             return Optional.empty();
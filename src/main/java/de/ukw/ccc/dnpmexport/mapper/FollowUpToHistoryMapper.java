@@ -39,6 +39,8 @@ public class FollowUpToHistoryMapper extends FollowUpMapper<Optional<History>> {
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    private final JsonToMedicationMapper jsonToMedicationMapper = new JsonToMedicationMapper();
+
     static final String FIELD_NAME_RECORDED_ON = "DatumFollowUp";
     static final String FIELD_NAME_STATUS = "StatusTherapie";
     static final String FIELD_NAME_BASED_ON = "LinkTherapieempfehlung";
@@ -56,6 +58,18 @@ public class FollowUpToHistoryMapper extends FollowUpMapper<Optional<History>> {
 
     @Override
     public Optional<History> apply(Procedure procedure) {
+        return apply(procedure, null);
+    }
+
+    /**
+     * Maps given procedure using the already known 'DNPM UF Einzelempfehlung' procedure it is based on.
+     * The Einzelempfehlung will be requested from Onkostar only if it is not the procedure referenced by the FollowUp.
+     *
+     * @param procedure        The procedure for 'DNPM FollowUp'
+     * @param einzelempfehlung The related procedure for 'DNPM UF Einzelempfehlung' or null
+     * @return The history
+     */
+    public Optional<History> apply(Procedure procedure, Procedure einzelempfehlung) {
         if (!canApply(procedure)) {
             return Optional.empty();
         }
@@ -66,7 +80,7 @@ public class FollowUpToHistoryMapper extends FollowUpMapper<Optional<History>> {
 
         var recordedOn = procedure.getValue(FIELD_NAME_RECORDED_ON);
         if (null != recordedOn) {
-            builder.withRecordedOn(dateFormat().format(recordedOn.getDate()));
+            builder.withRecordedOn(formatDate(recordedOn.getDate()));
         }
 
         var status = procedure.getValue(FIELD_NAME_STATUS);
@@ -86,11 +100,14 @@ public class FollowUpToHistoryMapper extends FollowUpMapper<Optional<History>> {
         if (null != basedOn && basedOn.getString().matches("[0-9]*")) {
             builder.withBasedOn(anonymizeString(basedOn.getString()));
 
-            final var einzelempfehlung = mapperUtils.onkostarApi().getProcedure(Integer.parseInt(basedOn.getString()));
-            if (null != einzelempfehlung) {
-                final var wirkstoffeJson = einzelempfehlung.getValue(FIELD_NAME_EINZELEMPFEHLUNG_MEDICATION_JSON);
+            final var basedOnId = Integer.valueOf(basedOn.getString());
+            final var basedOnProcedure = null != einzelempfehlung && basedOnId.equals(einzelempfehlung.getId())
+                    ? einzelempfehlung
+                    : mapperUtils.getProcedure(basedOnId);
+            if (null != basedOnProcedure) {
+                final var wirkstoffeJson = basedOnProcedure.getValue(FIELD_NAME_EINZELEMPFEHLUNG_MEDICATION_JSON);
                 if (null != wirkstoffeJson) {
-                    builder.withMedication(new JsonToMedicationMapper().apply(wirkstoffeJson.getString()).orElse(List.of()));
+                    builder.withMedication(jsonToMedicationMapper.apply(wirkstoffeJson.getString()).orElse(List.of()));
                 }
             }
         }
@@ -98,9 +115,9 @@ public class FollowUpToHistoryMapper extends FollowUpMapper<Optional<History>> {
         var periodStart = procedure.getValue(FIELD_NAME_PERIOD_START);
         var periodEnd = procedure.getValue(FIELD_NAME_PERIOD_END);
         if (null != periodStart && null != periodStart.getDate()) {
-            final var periodBuilder = PeriodStartEnd.builder().withStart(dateFormat().format(periodStart.getDate()));
+            final var periodBuilder = PeriodStartEnd.builder().withStart(formatDate(periodStart.getDate()));
             if (null != periodEnd && null != periodEnd.getDate()) {
-                periodBuilder.withEnd(dateFormat().format(periodEnd.getDate()));
+                periodBuilder.withEnd(formatDate(periodEnd.getDate()));
             }
             builder.withPeriod(periodBuilder.build());
         }
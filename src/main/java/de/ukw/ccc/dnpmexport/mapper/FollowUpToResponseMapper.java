@@ -65,7 +65,7 @@ public class FollowUpToResponseMapper extends FollowUpMapper<Optional<Response>>
                 Response.builder()
                         .withId(anonymizeId(procedure))
                         .withPatient(getPatientId(procedure))
-                        .withEffectiveDate(dateFormat().format(datum.getDate()))
+                        .withEffectiveDate(formatDate(datum.getDate()))
                         .withTherapy(anonymizeString(therapyId.getString()))
                         .withValue(mapValue(bestResponse.getString()).get())
                         .build()
@@ -0,0 +1,83 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.mapper;
+
+import de.itc.onkostar.api.IOnkostarApi;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Wraps an {@link IOnkostarApi} to record each call in the trace of the current export.
+ * Calls outside of an export are passed through without recording.
+ * <p>
+ * If enabled by setting 'dnpmexport_api_profiling', the time spent per method and calls with arguments
+ * identical to a previous call within the same export are recorded as well.
+ */
+final class InstrumentedOnkostarApi {
+
+    private InstrumentedOnkostarApi() {
+    }
+
+    /**
+     * Wraps given API
+     *
+     * @param onkostarApi           The API to be wrapped
+     * @param currentProcedureGraph Supplies the procedure graph of the current export or null if there is no running export
+     * @return The wrapped API
+     */
+    static IOnkostarApi wrap(final IOnkostarApi onkostarApi, final Supplier<ProcedureGraph> currentProcedureGraph) {
+        return (IOnkostarApi) Proxy.newProxyInstance(
+                IOnkostarApi.class.getClassLoader(),
+                new Class<?>[]{IOnkostarApi.class},
+                (proxy, method, args) -> {
+                    var graph = Object.class.equals(method.getDeclaringClass()) ? null : currentProcedureGraph.get();
+                    var start = System.nanoTime();
+                    try {
+                        return method.invoke(onkostarApi, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    } finally {
+                        if (null != graph) {
+                            record(graph, method.getName(), args, System.nanoTime() - start);
+                        }
+                    }
+                }
+        );
+    }
+
+    private static void record(ProcedureGraph graph, String method, Object[] args, long nanos) {
+        var trace = graph.getTrace();
+        if (graph.getSettings().isApiProfiling()) {
+            trace.addProfiledApiCall(method, null == args ? List.of() : Arrays.asList(args), nanos);
+        } else {
+            trace.addApiCall(method, nanos);
+        }
+    }
+
+}
@@ -25,7 +25,7 @@
 package de.ukw.ccc.dnpmexport.mapper;
 
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import de.ukw.ccc.bwhc.dto.Medication;
 
 import java.util.List;
@@ -34,17 +34,26 @@ import java.util.stream.Collectors;
 
 public class JsonToMedicationMapper implements Mapper<String, Optional<List<Medication>>> {
 
-    private final ObjectMapper objectMapper;
+    static final int CACHE_SIZE = 1_000;
 
-    public JsonToMedicationMapper() {
-        this.objectMapper = new ObjectMapper();
-    }
+    private static final ObjectReader wirkstoffeReader = JsonReaders.readerFor(new TypeReference<List<Wirkstoff>>() {
+    });
+
+    // Same JSON is used in recommendations and follow-ups, keep results keyed by raw JSON
+    private static final LruCache<String, Optional<List<Medication>>> cache = new LruCache<>(CACHE_SIZE);
 
     @Override
     public Optional<List<Medication>> apply(String wirkstoffejson) {
+        if (null == wirkstoffejson) {
+            return Optional.empty();
+        }
+        return cache.get(wirkstoffejson, JsonToMedicationMapper::parse);
+    }
+
+    private static Optional<List<Medication>> parse(String wirkstoffejson) {
         try {
-            final var result = objectMapper.readValue(wirkstoffejson, new TypeReference<List<Wirkstoff>>() {
-                    }).stream()
+            final List<Wirkstoff> wirkstoffe = wirkstoffeReader.readValue(wirkstoffejson);
+            final var result = wirkstoffe.stream()
                     .map(wirkstoff -> Medication.builder()
                             .withCode(wirkstoff.code)
                             .withSystem(
@@ -57,7 +66,7 @@ public class JsonToMedicationMapper implements Mapper<String, Optional<List<Medi
                             .withDisplay(wirkstoff.name)
                             .build()
                     )
-                    .collect(Collectors.toList());
+                    .collect(Collectors.toUnmodifiableList());
             return Optional.of(result);
         } catch (Exception e) {
             return Optional.empty();
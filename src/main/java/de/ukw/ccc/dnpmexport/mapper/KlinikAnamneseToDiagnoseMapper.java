@@ -50,7 +50,7 @@ public class KlinikAnamneseToDiagnoseMapper extends KlinikAnamneseMapper<Optiona
 
         var datumErstdiagnose = procedure.getValue("DatumErstdiagnose").getDate();
         if (null != datumErstdiagnose) {
-            builder.withRecordedOn(dateFormat().format(datumErstdiagnose));
+            builder.withRecordedOn(formatDate(datumErstdiagnose));
         }
 
         var icd10 = procedure.getValue("ICD10").getString();
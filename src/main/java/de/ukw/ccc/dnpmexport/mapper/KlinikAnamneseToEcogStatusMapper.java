@@ -44,10 +44,8 @@ public class KlinikAnamneseToEcogStatusMapper extends KlinikAnamneseMapper<List<
             return List.of();
         }
 
-        return mapperUtils.onkostarApi()
-                .getProceduresForDiseaseByForm(procedure.getDiseaseIds().get(0), "DNPM UF ECOG")
-                .stream()
-                .filter(p -> p.getParentProcedureId() == procedure.getId())
+        return mapperUtils
+                .getSubProcedures(procedure, "DNPM UF ECOG")
                 .map(p -> {
                     if (null != getStatus(p)) {
                         return Ecogstatus.builder()
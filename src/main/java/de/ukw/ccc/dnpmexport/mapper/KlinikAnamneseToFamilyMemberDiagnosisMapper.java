@@ -43,10 +43,8 @@ public class KlinikAnamneseToFamilyMemberDiagnosisMapper extends KlinikAnamneseM
             return List.of();
         }
 
-        return mapperUtils.onkostarApi()
-                .getProceduresForDiseaseByForm(procedure.getDiseaseIds().get(0), "DNPM UF Verwandte")
-                .stream()
-                .filter(p -> p.getParentProcedureId() == procedure.getId())
+        return mapperUtils
+                .getSubProcedures(procedure, "DNPM UF Verwandte")
                 .map(p ->
                         FamilyMemberDiagnosis.builder()
                                 .withId(anonymizeId(p))
@@ -24,15 +24,15 @@
 
 package de.ukw.ccc.dnpmexport.mapper;
 
-import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.function.Function;
 
 public interface Mapper<S, D> extends Function<S, D> {
 
     D apply(S source);
 
-    default SimpleDateFormat dateFormat() {
-        return new SimpleDateFormat("yyyy-MM-dd");
+    default String formatDate(Date date) {
+        return DateFormatter.format(date);
     }
 
 }
@@ -0,0 +1,161 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.mapper;
+
+import de.itc.onkostar.api.IOnkostarApi;
+import de.ukw.ccc.bwhc.dto.*;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds one instance of each mapper. All mappers are stateless and can be used by multiple exports at once.
+ * <p>
+ * Procedure mappers can be found by their source form name and target DTO type,
+ * additional mappings can be added using {@link #register(Class, ProcedureMapper)}.
+ */
+@Component
+public class MapperRegistry implements InitializingBean {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final MapperUtils mapperUtils;
+
+    private final DnpmExportSettingsProvider settingsProvider;
+
+    private final Map<Class<?>, Mapper<?, ?>> mappers = new ConcurrentHashMap<>();
+
+    private final Map<String, Map<Class<?>, ProcedureMapper<?>>> procedureMappers = new ConcurrentHashMap<>();
+
+    public MapperRegistry(final IOnkostarApi onkostarApi, final DnpmExportSettingsProvider settingsProvider) {
+        this.mapperUtils = new MapperUtils(onkostarApi, settingsProvider);
+        this.settingsProvider = settingsProvider;
+
+        register(new PatientMapper());
+        register(new DiseaseToDiagnoseMapper(mapperUtils));
+        register(new JsonToMedicationMapper());
+
+        register(Consent.class, new KlinikAnamneseToConsentMapper(mapperUtils));
+        register(Episode.class, new KlinikAnamneseToEpisodeMapper(mapperUtils));
+        register(Diagnosis.class, new KlinikAnamneseToDiagnoseMapper(mapperUtils));
+        register(FamilyMemberDiagnosis.class, new KlinikAnamneseToFamilyMemberDiagnosisMapper(mapperUtils));
+        register(Ecogstatus.class, new KlinikAnamneseToEcogStatusMapper(mapperUtils));
+
+        register(CarePlan.class, new TherapieplanToCarePlanMapper(mapperUtils));
+        register(RebiopsyRequest.class, new TherapieplanToRebiopsyRequestMapper(mapperUtils));
+        register(Recommendation.class, new TherapieplanToRecommendationMapper(mapperUtils));
+        register(StudyInclusionRequest.class, new TherapieplanToStudyInclusionMapper(mapperUtils));
+        register(HistologyReevaluationRequest.class, new TherapieplanToHistologyReevaluationRequestMapper(mapperUtils));
+        register(GeneticCounsellingRequest.class, new TherapieplanToGeneticCounsellingRequestMapper(mapperUtils));
+
+        register(Specimens.class, new MolekulargenetikToSpecimenMapper(mapperUtils));
+        register(NgsReport.class, new MolekulargenetikToNgsReportMapper(mapperUtils));
+
+        register(Claim.class, new FollowUpToClaimMapper(mapperUtils));
+        register(ClaimResponse.class, new FollowUpToClaimResponseMapper(mapperUtils));
+        register(History.class, new FollowUpToHistoryMapper(mapperUtils));
+        register(Response.class, new FollowUpToResponseMapper(mapperUtils));
+    }
+
+    /**
+     * Preloads property catalogue versions in background if configured,
+     * so the first exports do not have to request them one by one.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        if (!settingsProvider.get().isCatalogueVersionsPreload()) {
+            return;
+        }
+        var thread = new Thread(mapperUtils::preloadPropertyCatalogueVersions, "dnpmexport-catalogue-preload");
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("Preloading property catalogue versions");
+    }
+
+    public MapperUtils mapperUtils() {
+        return this.mapperUtils;
+    }
+
+    /**
+     * Registers a mapper to be found by its class
+     *
+     * @param mapper The mapper
+     */
+    public void register(Mapper<?, ?> mapper) {
+        mappers.put(mapper.getClass(), mapper);
+    }
+
+    /**
+     * Registers a procedure mapper to be found by its class or by source form name and target DTO type.
+     * An existing mapper for the same form name and DTO type will be replaced.
+     *
+     * @param dtoType The target DTO type
+     * @param mapper  The mapper
+     */
+    public void register(Class<?> dtoType, ProcedureMapper<?> mapper) {
+        register(mapper);
+        procedureMappers
+                .computeIfAbsent(mapper.formName(), formName -> new ConcurrentHashMap<>())
+                .put(dtoType, mapper);
+    }
+
+    /**
+     * Returns the registered instance of given mapper class
+     *
+     * @param mapperClass The mapper class
+     * @param <M>         The mapper type
+     * @return The mapper instance
+     * @throws IllegalArgumentException if no mapper of this class has been registered
+     */
+    public <M extends Mapper<?, ?>> M get(Class<M> mapperClass) {
+        var mapper = mappers.get(mapperClass);
+        if (null == mapper) {
+            throw new IllegalArgumentException("No mapper registered: " + mapperClass.getName());
+        }
+        return mapperClass.cast(mapper);
+    }
+
+    /**
+     * Finds the procedure mapper for given source form name and target DTO type
+     *
+     * @param formName The name of the source form
+     * @param dtoType  The target DTO type
+     * @return The mapper or empty Optional if there is no such mapper
+     */
+    public Optional<ProcedureMapper<?>> find(String formName, Class<?> dtoType) {
+        var formMappers = procedureMappers.get(formName);
+        if (null == formMappers) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(formMappers.get(dtoType));
+    }
+
+}
@@ -27,12 +27,14 @@ package de.ukw.ccc.dnpmexport.mapper;
 import de.itc.onkostar.api.*;
 import de.ukw.ccc.bwhc.dto.Icd10;
 import de.ukw.ccc.bwhc.dto.IcdO3T;
-import org.apache.commons.codec.binary.Base32;
-import org.apache.commons.codec.digest.DigestUtils;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettings;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -44,22 +46,187 @@ public class MapperUtils {
 
     private final IOnkostarApi onkostarApi;
 
-    public MapperUtils(final IOnkostarApi onkostarApi) {
-        this.onkostarApi = onkostarApi;
+    private final ThreadLocal<ProcedureGraph> procedureGraph = new ThreadLocal<>();
+
+    private final Pseudonymizer pseudonymizer = new Pseudonymizer();
+
+    private final PropertyCatalogueVersions catalogueVersions;
+
+    private final DnpmExportSettingsProvider settingsProvider;
+
+    public MapperUtils(final IOnkostarApi onkostarApi, final DnpmExportSettingsProvider settingsProvider) {
+        this.onkostarApi = InstrumentedOnkostarApi.wrap(onkostarApi, procedureGraph::get);
+        this.settingsProvider = settingsProvider;
+        this.catalogueVersions = new PropertyCatalogueVersions(this.onkostarApi);
     }
 
+    /**
+     * Returns the Onkostar API. Calls within {@link #withProcedureGraph(Runnable)} are recorded in the export trace.
+     *
+     * @return The Onkostar API
+     */
     public IOnkostarApi onkostarApi() {
         return this.onkostarApi;
     }
 
+    /**
+     * Runs given export with a new {@link ProcedureGraph} bound to the current thread.
+     * All procedure lists requested within the export will be fetched once and then reused.
+     * Nested calls will reuse the already bound procedure graph.
+     * Methods accessing procedures or the trace must be called within an export and fail otherwise.
+     *
+     * @param export The export to be run
+     */
+    public void withProcedureGraph(Runnable export) {
+        if (null != procedureGraph.get()) {
+            export.run();
+            return;
+        }
+
+        procedureGraph.set(new ProcedureGraph(onkostarApi, settingsProvider));
+        try {
+            export.run();
+        } finally {
+            procedureGraph.remove();
+        }
+    }
+
+    /**
+     * Wraps given task to run with the procedure graph bound to the current thread.
+     * This allows parts of an export to run in other threads sharing the same procedure graph.
+     * The previous binding of the executing thread is restored afterwards.
+     *
+     * @param task The task to be run as part of the current export
+     * @return The wrapped task or the task itself if there is no procedure graph bound to the current thread
+     */
+    public Runnable withCurrentProcedureGraph(Runnable task) {
+        var graph = procedureGraph.get();
+        if (null == graph) {
+            return task;
+        }
+        return () -> {
+            var previous = procedureGraph.get();
+            procedureGraph.set(graph);
+            try {
+                task.run();
+            } finally {
+                if (null == previous) {
+                    procedureGraph.remove();
+                } else {
+                    procedureGraph.set(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the trace of the current export
+     *
+     * @return The trace
+     * @throws IllegalStateException if called outside of {@link #withProcedureGraph(Runnable)}
+     */
+    public ExportTrace trace() {
+        return currentProcedureGraph().getTrace();
+    }
+
+    /**
+     * Returns the settings of the current export.
+     * If called within {@link #withProcedureGraph(Runnable)}, settings will not change during the export.
+     * Otherwise the current settings snapshot is returned.
+     *
+     * @return The settings
+     */
+    public DnpmExportSettings settings() {
+        var graph = procedureGraph.get();
+        if (null == graph) {
+            return settingsProvider.get();
+        }
+        return graph.getSettings();
+    }
+
+    /**
+     * Returns all procedures of given form for given disease.
+     * The procedure graph of the current export is used.
+     *
+     * @param diseaseId The disease ID
+     * @param formName  The name of the form
+     * @return List of procedures
+     */
+    public List<Procedure> getProceduresForDiseaseByForm(int diseaseId, String formName) {
+        return currentProcedureGraph().getProceduresForDiseaseByForm(diseaseId, formName);
+    }
+
+    /**
+     * Returns the procedure with given ID.
+     * Each procedure is requested once per export.
+     *
+     * @param procedureId The procedure ID
+     * @return The procedure or null if there is no such procedure
+     */
+    public Procedure getProcedure(int procedureId) {
+        return currentProcedureGraph().getProcedure(procedureId);
+    }
+
+    /**
+     * Returns the procedures with given IDs, omitting missing procedures.
+     * Each procedure is requested once per export.
+     *
+     * @param procedureIds The procedure IDs
+     * @return List of procedures in order of first occurrence of their IDs
+     */
+    public List<Procedure> getProcedures(Collection<Integer> procedureIds) {
+        return currentProcedureGraph().getProcedures(procedureIds);
+    }
+
+    /**
+     * Stream of procedures of given form with given procedure as parent procedure.
+     * The first disease of the parent procedure is used to look up procedures.
+     *
+     * @param parent   The parent procedure
+     * @param formName The name of the form
+     * @return Stream of procedures
+     */
+    public Stream<Procedure> getSubProcedures(Procedure parent, String formName) {
+        return currentProcedureGraph()
+                .getSubProcedures(parent.getDiseaseIds().get(0), formName, parent.getId())
+                .stream();
+    }
+
+    /**
+     * Stream of procedures of given form referencing given procedure in given field.
+     * The first disease of the referenced procedure is used to look up procedures.
+     *
+     * @param referenced The referenced procedure
+     * @param formName   The name of the form
+     * @param fieldName  The name of the field containing the procedure reference
+     * @return Stream of procedures
+     */
+    public Stream<Procedure> getReferencingProcedures(Procedure referenced, String formName, String fieldName) {
+        return currentProcedureGraph()
+                .getReferencingProcedures(referenced.getDiseaseIds().get(0), formName, fieldName, referenced.getId())
+                .stream();
+    }
+
+    private ProcedureGraph currentProcedureGraph() {
+        var graph = procedureGraph.get();
+        if (null == graph) {
+            throw new IllegalStateException("No procedure graph bound to current thread");
+        }
+        return graph;
+    }
+
     // TODO Seek a way to get ICD PropertyCatalogue Version Description which contains year in the last 4 digits
     public String getVersion(int versionId) {
-        var oid = onkostarApi.getPropertyCatalogueVersionOid(versionId);
-        if (null == oid) {
-            return "";
-        }
+        return catalogueVersions.getVersion(versionId);
+    }
 
-        return oid.substring(oid.length() - 4);
+    /**
+     * Requests all property catalogue versions in advance
+     *
+     * @return The number of preloaded catalogue versions
+     */
+    public int preloadPropertyCatalogueVersions() {
+        return catalogueVersions.preload();
     }
 
     public Optional<Icd10> getIcd10(Disease disease) {
@@ -67,13 +234,18 @@ public class MapperUtils {
             return Optional.empty();
         }
 
-        if (null == disease.getIcd10Version() || getVersion(disease.getIcd10Version()).isBlank()) {
+        if (null == disease.getIcd10Version()) {
+            return Optional.empty();
+        }
+
+        var version = getVersion(disease.getIcd10Version());
+        if (version.isBlank()) {
             return Optional.empty();
         }
 
         return Optional.of(
                 Icd10.builder()
-                        .withVersion(getVersion(disease.getIcd10Version()))
+                        .withVersion(version)
                         .withCode(disease.getIcd10Code())
                         .build()
         );
@@ -84,13 +256,18 @@ public class MapperUtils {
             return Optional.empty();
         }
 
-        if (null == disease.getLocalisationVersion() || getVersion(disease.getLocalisationVersion()).isBlank()) {
+        if (null == disease.getLocalisationVersion()) {
+            return Optional.empty();
+        }
+
+        var version = getVersion(disease.getLocalisationVersion());
+        if (version.isBlank()) {
             return Optional.empty();
         }
 
         return Optional.of(
                 IcdO3T.builder()
-                        .withVersion(getVersion(disease.getLocalisationVersion()))
+                        .withVersion(version)
                         .withCode(disease.getLocalisationCode())
                         .build()
         );
@@ -109,19 +286,13 @@ public class MapperUtils {
             return Stream.empty();
         }
 
-        var refIds = onkostarApi
-                .getProceduresForDiseaseByForm(procedure.getDiseaseIds().get(0), "DNPM UF Einzelempfehlung")
-                .stream()
-                .filter(p -> p.getParentProcedureId() == procedure.getId())
+        var refIds = getSubProcedures(procedure, "DNPM UF Einzelempfehlung")
                 .map(p -> p.getValue("refosmolekulargenetik").getInt())
                 .collect(Collectors.toList());
 
         refIds.add(procedure.getValue("refreevaltumorprobe").getInt());
 
-        return refIds.stream()
-                .distinct()
-                .map(onkostarApi::getProcedure)
-                .filter(Objects::nonNull)
+        return getProcedures(refIds).stream()
                 .filter(p -> "OS.Molekulargenetik".equals(p.getFormName()))
                 .filter(p -> !lockedOnly || p.getEditState() == ProcedureEditStateType.COMPLETED)
                 .map(Procedure::getId);
@@ -156,7 +327,7 @@ public class MapperUtils {
         }
 
         return Stream.of(refIds.getInt())
-                .map(onkostarApi::getProcedure)
+                .map(this::getProcedure)
                 .filter(Objects::nonNull)
                 .filter(p -> "OS.Molekulargenetik".equals(p.getFormName()))
                 .filter(p -> !lockedOnly || p.getEditState() == ProcedureEditStateType.COMPLETED)
@@ -189,11 +360,7 @@ public class MapperUtils {
             logger.warn("Ignoring - more than one disease!");
             return Stream.empty();
         }
-        return onkostarApi.getProceduresForDiseaseByForm(procedure.getDiseaseIds().get(0), "DNPM Therapieplan").stream()
-                .filter(p -> {
-                    var refId = p.getValue("refdnpmklinikanamnese").getInt();
-                    return procedure.getId().equals(refId);
-                })
+        return getReferencingProcedures(procedure, "DNPM Therapieplan", "refdnpmklinikanamnese")
                 .filter(p -> !lockedOnly || p.getEditState() == ProcedureEditStateType.COMPLETED);
     }
 
@@ -223,8 +390,7 @@ public class MapperUtils {
             logger.warn("Ignoring - more than one disease!");
             return Stream.empty();
         }
-        return onkostarApi.getProceduresForDiseaseByForm(procedure.getDiseaseIds().get(0), "DNPM UF Einzelempfehlung").stream()
-                .filter(p -> procedure.getId().equals(p.getParentProcedureId()))
+        return getSubProcedures(procedure, "DNPM UF Einzelempfehlung")
                 .filter(p -> !lockedOnly || p.getEditState() == ProcedureEditStateType.COMPLETED);
     }
 
@@ -254,11 +420,7 @@ public class MapperUtils {
             logger.warn("Ignoring - more than one disease!");
             return Stream.empty();
         }
-        return onkostarApi.getProceduresForDiseaseByForm(procedure.getDiseaseIds().get(0), "DNPM FollowUp").stream()
-                .filter(p -> {
-                    var refId = p.getValue("LinkTherapieempfehlung").getInt();
-                    return procedure.getId().equals(refId);
-                })
+        return getReferencingProcedures(procedure, "DNPM FollowUp", "LinkTherapieempfehlung")
                 .filter(p -> !lockedOnly || p.getEditState() == ProcedureEditStateType.COMPLETED)
                 .sorted(Comparator.comparing(Procedure::getId));
     }
@@ -288,7 +450,7 @@ public class MapperUtils {
             logger.warn("No reference to 'DNPM UF Einzelempfehlung' given in 'DNPM FollowUp': {}", procedure.getId());
             return Optional.empty();
         }
-        var einzelempfehlung = onkostarApi.getProcedure(procedureId.getInt());
+        var einzelempfehlung = getProcedure(procedureId.getInt());
         if (null == einzelempfehlung || !einzelempfehlung.getFormName().equals("DNPM UF Einzelempfehlung")) {
             logger.warn("No form of type 'DNPM UF Einzelempfehlung' found for 'DNPM FollowUp': {}", procedure.getId());
             return Optional.empty();
@@ -306,7 +468,7 @@ public class MapperUtils {
             logger.warn("Not a form of type 'DNPM UF Einzelempfehlung'");
             return Optional.empty();
         }
-        var therapieplan = onkostarApi.getProcedure(procedure.getParentProcedureId());
+        var therapieplan = getProcedure(procedure.getParentProcedureId());
         if (null == therapieplan || !therapieplan.getFormName().equals("DNPM Therapieplan")) {
             logger.warn("No parent form of type 'DNPM Therapieplan' found for 'DNPM UF Einzelempfehlung': {}", procedure.getId());
             return Optional.empty();
@@ -329,7 +491,7 @@ public class MapperUtils {
             logger.warn("No reference to 'DNPM KlinikAnamnese' given in 'DNPM Therapieplan': {}", procedure.getId());
             return Optional.empty();
         }
-        var result = onkostarApi.getProcedure(klinikAnamnese.getInt());
+        var result = getProcedure(klinikAnamnese.getInt());
         if (null == result || !result.getFormName().equals("DNPM Klinik/Anamnese")) {
             logger.warn("No form of type 'DNPM Klinik/Anamnese' found: {}", klinikAnamnese.getInt());
             return Optional.empty();
@@ -350,24 +512,20 @@ public class MapperUtils {
         }
 
         try {
-            final var oid = this.onkostarApi().getPropertyCatalogueVersionOid(Integer.parseInt(item.getPropertyCatalogueVersion()));
-            if (null == oid) {
-                return Optional.empty();
-            }
-
-            if (oid.startsWith("icd10gmversion")) {
-                return Optional.of(oid.replaceAll("icd10gmversion", ""));
-            } else if (oid.startsWith("LOK Version")) {
-                return Optional.of(oid.replaceAll("LOK Version", ""));
-            }
+            return catalogueVersions.getSanitizedVersion(Integer.parseInt(item.getPropertyCatalogueVersion()));
         } catch (Exception e) {
             logger.warn("Cannot parse property catalogue version as Integer: {}", item.getPropertyCatalogueVersion());
             return Optional.empty();
         }
-
-        return Optional.empty();
     }
 
+    /**
+     * Returns the MTB date of given Einzelempfehlung or the date of the related MTB procedure.
+     * Each MTB procedure is requested once per export.
+     *
+     * @param procedure The Einzelempfehlung procedure
+     * @return The MTB date or an empty String if not available
+     */
     public String einzelempfehlungMtbDate(Procedure procedure) {
         if (!"DNPM UF Einzelempfehlung".equals(procedure.getFormName())) {
             logger.warn("Ignoring - not of form 'DNPM UF Einzelempfehlung'!");
@@ -379,17 +537,12 @@ public class MapperUtils {
         }
 
         logger.warn("Kein MTB-Datum in 'DNPM UF Einzelempfehlung'!");
-        var mtb = onkostarApi.getProcedure(procedure.getValue("mtb").getInt());
-        if (null == mtb) {
+        var mtbDate = currentProcedureGraph().getMtbDate(procedure.getValue("mtb").getInt());
+        if (mtbDate.isEmpty()) {
             logger.warn("Kein MTB in 'DNPM UF Einzelempfehlung'!");
             return "";
         }
-        switch (mtb.getFormName()) {
-            case "OS.Tumorkonferenz":
-            case "OS.Tumorkonferenz.VarianteUKW":
-            default:
-                return mtb.getValue("Datum").getString();
-        }
+        return mtbDate.get();
     }
 
     /**
@@ -399,12 +552,7 @@ public class MapperUtils {
      * @return Prefix with first 40 digits of base32 encoded hash
      */
     public String anonymizeId(String id) {
-        var base32 = new Base32();
-        var prefix = this.onkostarApi.getGlobalSetting("dnpmexport_prefix");
-        if (null != prefix) {
-            return String.format("%s%s", prefix, base32.encodeToString(DigestUtils.sha256(id)).substring(0, 41).toLowerCase());
-        }
-        return String.format("UNKNOWN%s", base32.encodeToString(DigestUtils.sha256(id)).substring(0, 41).toLowerCase());
+        return pseudonymizer.pseudonymize(settings().getPrefix(), id);
     }
 
     public static String getPatientId(Patient patient) {
@@ -56,7 +56,7 @@ public class MolekulargenetikToNgsReportMapper extends MolekulargenetikMapper<Op
         var builder = NgsReport.builder()
                 .withId(anonymizeId(procedure))
                 .withPatient(getPatientId(procedure))
-                .withIssueDate(dateFormat().format(procedure.getStartDate()))
+                .withIssueDate(formatDate(procedure.getStartDate()))
                 .withSpecimen(anonymizeId(procedure))
                 .withSequencingType(mapArtDerSequenzierung(procedure.getValue("ArtDerSequenzierung").getString()))
                 /*.withTumorCellContent(
@@ -76,10 +76,8 @@ public class MolekulargenetikToNgsReportMapper extends MolekulargenetikMapper<Op
     }
 
     private List<SimpleVariant> getSimpleVariants(Procedure procedure) {
-        return this.mapperUtils.onkostarApi()
-                .getProceduresForDiseaseByForm(procedure.getDiseaseIds().get(0), "OS.Molekulargenetische Untersuchung")
-                .stream()
-                .filter(p -> p.getParentProcedureId() == procedure.getId())
+        return this.mapperUtils
+                .getSubProcedures(procedure, "OS.Molekulargenetische Untersuchung")
                 // Einfache Variante
                 .filter(p -> p.getValue("Ergebnis").getString().equals("P"))
                 .map(
@@ -41,12 +41,12 @@ public class PatientMapper implements Mapper<Patient, Optional<de.ukw.ccc.bwhc.d
 
         var patientBuilder = de.ukw.ccc.bwhc.dto.Patient.builder()
                 .withId(getPatientId(patient))
-                .withBirthDate(dateFormat().format(patient.getBirthdate()))
+                .withBirthDate(formatDate(patient.getBirthdate()))
                 .withGender(map(patient.getSex()))
                 .withInsurance(patient.getHealthFundNumber());
 
         if (null != patient.getDeathdate()) {
-            patientBuilder.withDateOfDeath(dateFormat().format(patient.getDeathdate()));
+            patientBuilder.withDateOfDeath(formatDate(patient.getDeathdate()));
         }
 
         return Optional.of(patientBuilder.build());
@@ -0,0 +1,275 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.mapper;
+
+import de.itc.onkostar.api.IOnkostarApi;
+import de.itc.onkostar.api.Procedure;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettings;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Snapshot of all procedures requested during a single export.
+ * <p>
+ * Each list of procedures for a disease and form is requested once and is shared by all mappers
+ * taking part in the same export. Lists are indexed by parent procedure ID and by referencing field
+ * on first access, so looking up related procedures does not require scanning the whole list again.
+ * Procedures requested by ID are loaded at most once. Procedures contained in a requested list are not
+ * requested again by ID.
+ * A graph is bound to the running export by {@link MapperUtils#withProcedureGraph(Runnable)}
+ * and must not be reused for another export.
+ */
+public class ProcedureGraph {
+
+    private final IOnkostarApi onkostarApi;
+
+    private final Map<FormKey, List<Procedure>> procedures = new ConcurrentHashMap<>();
+
+    private final Map<FormKey, Map<Integer, List<Procedure>>> proceduresByParent = new ConcurrentHashMap<>();
+
+    private final Map<FormKey, Map<Integer, List<Procedure>>> proceduresByReference = new ConcurrentHashMap<>();
+
+    private final Map<Integer, Optional<Procedure>> proceduresById = new ConcurrentHashMap<>();
+
+    private final Map<Integer, Optional<String>> mtbDates = new ConcurrentHashMap<>();
+
+    private final DnpmExportSettingsProvider settingsProvider;
+
+    private volatile DnpmExportSettings settings;
+
+    private final ExportTrace trace = new ExportTrace();
+
+    public ProcedureGraph(final IOnkostarApi onkostarApi, final DnpmExportSettingsProvider settingsProvider) {
+        this.onkostarApi = onkostarApi;
+        this.settingsProvider = settingsProvider;
+    }
+
+    /**
+     * Returns all procedures of given form for given disease.
+     * The list is requested from Onkostar on first access only.
+     *
+     * @param diseaseId The disease ID
+     * @param formName  The name of the form
+     * @return Unmodifiable list of procedures
+     */
+    public List<Procedure> getProceduresForDiseaseByForm(int diseaseId, String formName) {
+        return procedures.computeIfAbsent(new FormKey(diseaseId, formName, null), this::load);
+    }
+
+    /**
+     * Returns all procedures of given form for given disease with given parent procedure.
+     *
+     * @param diseaseId         The disease ID
+     * @param formName          The name of the form
+     * @param parentProcedureId The ID of the parent procedure
+     * @return Unmodifiable list of procedures
+     */
+    public List<Procedure> getSubProcedures(int diseaseId, String formName, int parentProcedureId) {
+        return proceduresByParent
+                .computeIfAbsent(new FormKey(diseaseId, formName, null), this::indexByParent)
+                .getOrDefault(parentProcedureId, List.of());
+    }
+
+    /**
+     * Returns all procedures of given form for given disease referencing given procedure ID in given field.
+     *
+     * @param diseaseId   The disease ID
+     * @param formName    The name of the form
+     * @param fieldName   The name of the field containing the referenced procedure ID
+     * @param procedureId The referenced procedure ID
+     * @return Unmodifiable list of procedures
+     */
+    public List<Procedure> getReferencingProcedures(int diseaseId, String formName, String fieldName, int procedureId) {
+        return proceduresByReference
+                .computeIfAbsent(new FormKey(diseaseId, formName, fieldName), this::indexByReference)
+                .getOrDefault(procedureId, List.of());
+    }
+
+    /**
+     * Returns the procedure with given ID.
+     * The procedure is requested from Onkostar on first access only, unless it is part of an already requested list.
+     *
+     * @param procedureId The procedure ID
+     * @return The procedure or null if there is no such procedure
+     */
+    public Procedure getProcedure(int procedureId) {
+        return proceduresById
+                .computeIfAbsent(procedureId, id -> Optional.ofNullable(onkostarApi.getProcedure(id)))
+                .orElse(null);
+    }
+
+    /**
+     * Returns the procedures with given IDs. Each distinct ID is requested once, IDs of already known procedures
+     * are not requested again. Missing procedures are omitted.
+     *
+     * @param procedureIds The procedure IDs
+     * @return Unmodifiable list of procedures in order of first occurrence of their IDs
+     */
+    public List<Procedure> getProcedures(Collection<Integer> procedureIds) {
+        var result = new ArrayList<Procedure>(procedureIds.size());
+        for (var procedureId : new LinkedHashSet<>(procedureIds)) {
+            if (null == procedureId) {
+                continue;
+            }
+            var procedure = getProcedure(procedureId);
+            if (null != procedure) {
+                result.add(procedure);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Returns the date of the MTB procedure (OS.Tumorkonferenz or OS.Tumorkonferenz.VarianteUKW) with given ID.
+     * Each MTB procedure is requested from Onkostar on first access only.
+     *
+     * @param mtbProcedureId The ID of the MTB procedure
+     * @return The date of the MTB or empty Optional if there is no such procedure
+     */
+    public Optional<String> getMtbDate(int mtbProcedureId) {
+        return mtbDates.computeIfAbsent(mtbProcedureId, this::loadMtbDate);
+    }
+
+    /**
+     * Returns the settings used for this export.
+     * Settings are requested on first access only and remain unchanged for this export.
+     *
+     * @return The settings
+     */
+    public DnpmExportSettings getSettings() {
+        if (null == settings) {
+            settings = settingsProvider.get();
+        }
+        return settings;
+    }
+
+    /**
+     * Returns the trace of this export
+     *
+     * @return The trace
+     */
+    public ExportTrace getTrace() {
+        return trace;
+    }
+
+    private List<Procedure> load(FormKey key) {
+        var result = onkostarApi.getProceduresForDiseaseByForm(key.diseaseId, key.formName);
+        if (null == result) {
+            return List.of();
+        }
+        for (var procedure : result) {
+            if (null != procedure.getId()) {
+                proceduresById.putIfAbsent(procedure.getId(), Optional.of(procedure));
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<>(result));
+    }
+
+    private Optional<String> loadMtbDate(int mtbProcedureId) {
+        var mtb = getProcedure(mtbProcedureId);
+        if (null == mtb) {
+            return Optional.empty();
+        }
+        switch (mtb.getFormName()) {
+            case "OS.Tumorkonferenz":
+            case "OS.Tumorkonferenz.VarianteUKW":
+            default:
+                return Optional.of(mtb.getValue("Datum").getString());
+        }
+    }
+
+    private Map<Integer, List<Procedure>> indexByParent(FormKey key) {
+        var index = new HashMap<Integer, List<Procedure>>();
+        for (var procedure : getProceduresForDiseaseByForm(key.diseaseId, key.formName)) {
+            Integer parentProcedureId = procedure.getParentProcedureId();
+            if (null != parentProcedureId) {
+                index.computeIfAbsent(parentProcedureId, id -> new ArrayList<>()).add(procedure);
+            }
+        }
+        return unmodifiable(index);
+    }
+
+    private Map<Integer, List<Procedure>> indexByReference(FormKey key) {
+        var index = new HashMap<Integer, List<Procedure>>();
+        for (var procedure : getProceduresForDiseaseByForm(key.diseaseId, key.formName)) {
+            var item = procedure.getValue(key.fieldName);
+            if (null == item) {
+                continue;
+            }
+            Integer referencedId = item.getInt();
+            if (null != referencedId) {
+                index.computeIfAbsent(referencedId, id -> new ArrayList<>()).add(procedure);
+            }
+        }
+        return unmodifiable(index);
+    }
+
+    private static Map<Integer, List<Procedure>> unmodifiable(Map<Integer, List<Procedure>> index) {
+        index.replaceAll((id, procedures) -> Collections.unmodifiableList(procedures));
+        return Collections.unmodifiableMap(index);
+    }
+
+    private static final class FormKey {
+        private final int diseaseId;
+        private final String formName;
+        private final String fieldName;
+
+        private FormKey(int diseaseId, String formName, String fieldName) {
+            this.diseaseId = diseaseId;
+            this.formName = formName;
+            this.fieldName = fieldName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof FormKey)) {
+                return false;
+            }
+            var other = (FormKey) o;
+            return diseaseId == other.diseaseId
+                    && Objects.equals(formName, other.formName)
+                    && Objects.equals(fieldName, other.fieldName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(diseaseId, formName, fieldName);
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.mapper;
+
+import de.itc.onkostar.api.IOnkostarApi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Cache of property catalogue version OIDs and the version strings derived from them.
+ * <p>
+ * There are only a few catalogue versions, so each OID is requested from Onkostar once
+ * and kept as long as the plugin is running. Missing OIDs are not cached and requested again on next use.
+ */
+public class PropertyCatalogueVersions {
+
+    static final int CACHE_SIZE = 1_000;
+
+    // Only ICD-10-GM and ICD-O-3 versions are used by the export
+    private static final String VERSIONS_QUERY = "SELECT id, oid FROM property_catalogue_version "
+            + "WHERE oid LIKE 'icd10gmversion%' OR oid LIKE 'LOK Version%'";
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final IOnkostarApi onkostarApi;
+
+    private final LruCache<Integer, CatalogueVersion> versions = new LruCache<>(CACHE_SIZE);
+
+    public PropertyCatalogueVersions(final IOnkostarApi onkostarApi) {
+        this.onkostarApi = onkostarApi;
+    }
+
+    /**
+     * Returns the last four characters of the OID, usually the year of the catalogue version
+     *
+     * @param versionId The property catalogue version ID
+     * @return The version or an empty String if there is no OID
+     */
+    public String getVersion(int versionId) {
+        return get(versionId).version;
+    }
+
+    /**
+     * Returns the OID without the prefix 'icd10gmversion' or 'LOK Version'
+     *
+     * @param versionId The property catalogue version ID
+     * @return The sanitized version or empty Optional if there is no OID or it has another prefix
+     */
+    public Optional<String> getSanitizedVersion(int versionId) {
+        return get(versionId).sanitizedVersion;
+    }
+
+    /**
+     * Reads OIDs of all ICD-10-GM and ICD-O-3 catalogue versions with a single query in its own session,
+     * so it can be called from a thread without a bound Hibernate session.
+     * Errors are logged only, missing entries will be requested on first use.
+     *
+     * @return The number of preloaded catalogue versions
+     */
+    public int preload() {
+        try {
+            final var session = onkostarApi.getSessionFactory().openSession();
+            try {
+                @SuppressWarnings("unchecked")
+                List<Object[]> result = session.createSQLQuery(VERSIONS_QUERY).list();
+                var count = 0;
+                for (var row : result) {
+                    if (null == row[1]) {
+                        continue;
+                    }
+                    var oid = row[1].toString();
+                    versions.get(((Number) row[0]).intValue(), id -> new CatalogueVersion(oid));
+                    count++;
+                }
+                logger.info("Preloaded {} property catalogue versions", count);
+                return count;
+            } finally {
+                session.close();
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Cannot preload property catalogue versions", e);
+            return 0;
+        }
+    }
+
+    public int size() {
+        return versions.size();
+    }
+
+    private CatalogueVersion get(int versionId) {
+        var version = versions.get(versionId, this::load);
+        return null == version ? CatalogueVersion.MISSING : version;
+    }
+
+    private CatalogueVersion load(int versionId) {
+        var oid = onkostarApi.getPropertyCatalogueVersionOid(versionId);
+        return null == oid ? null : new CatalogueVersion(oid);
+    }
+
+    private static final class CatalogueVersion {
+        private static final CatalogueVersion MISSING = new CatalogueVersion(null);
+
+        private final String version;
+        private final Optional<String> sanitizedVersion;
+
+        private CatalogueVersion(String oid) {
+            if (null == oid) {
+                this.version = "";
+                this.sanitizedVersion = Optional.empty();
+            } else {
+                this.version = oid.substring(Math.max(0, oid.length() - 4));
+                this.sanitizedVersion = sanitize(oid);
+            }
+        }
+
+        private static Optional<String> sanitize(String oid) {
+            if (oid.startsWith("icd10gmversion")) {
+                return Optional.of(oid.replace("icd10gmversion", ""));
+            } else if (oid.startsWith("LOK Version")) {
+                return Optional.of(oid.replace("LOK Version", ""));
+            }
+            return Optional.empty();
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.mapper;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Creates pseudonyms of IDs using the lowercase Base32 encoded SHA-256 hash of the ID.
+ * <p>
+ * The result is identical to {@code prefix + new Base32().encodeToString(DigestUtils.sha256(id)).substring(0, 41).toLowerCase()}
+ * but reuses digest and char buffer per thread and keeps recently used pseudonyms in a cache.
+ */
+public class Pseudonymizer {
+
+    static final int DEFAULT_CACHE_SIZE = 10_000;
+
+    static final String UNKNOWN_PREFIX = "UNKNOWN";
+
+    private static final int LENGTH = 41;
+
+    private static final char[] ALPHABET = "abcdefghijklmnopqrstuvwxyz234567".toCharArray();
+
+    private static final ThreadLocal<MessageDigest> digest = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    });
+
+    private static final ThreadLocal<char[]> buffer = ThreadLocal.withInitial(() -> new char[LENGTH]);
+
+    // Caches the hash part only, so pseudonyms are independent of the prefix in use
+    private final LruCache<String, String> cache;
+
+    public Pseudonymizer() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    public Pseudonymizer(final int cacheSize) {
+        this.cache = new LruCache<>(cacheSize);
+    }
+
+    /**
+     * Creates the pseudonym for given ID
+     *
+     * @param prefix The prefix to be used, "UNKNOWN" if null
+     * @param id     The ID
+     * @return The pseudonym
+     */
+    public String pseudonymize(String prefix, String id) {
+        var hash = cache.get(id, Pseudonymizer::hash);
+        return (null == prefix ? UNKNOWN_PREFIX : prefix).concat(hash);
+    }
+
+    private static String hash(String id) {
+        var bytes = digest.get().digest(id.getBytes(StandardCharsets.UTF_8));
+        var chars = buffer.get();
+
+        // Encode 5 bits per char, 41 chars require the first 205 bits of the 256 bit hash
+        for (int i = 0; i < LENGTH; i++) {
+            var bit = i * 5;
+            var index = bit >> 3;
+            var value = (bytes[index] & 0xff) << 8;
+            if (index + 1 < bytes.length) {
+                value |= bytes[index + 1] & 0xff;
+            }
+            chars[i] = ALPHABET[(value >> (11 - (bit & 7))) & 0x1f];
+        }
+
+        return new String(chars);
+    }
+
+}
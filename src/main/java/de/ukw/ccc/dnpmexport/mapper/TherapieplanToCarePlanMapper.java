@@ -27,17 +27,61 @@ package de.ukw.ccc.dnpmexport.mapper;
 import de.itc.onkostar.api.Procedure;
 import de.ukw.ccc.bwhc.dto.*;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class TherapieplanToCarePlanMapper extends TherapieplanMapper<Optional<CarePlan>> {
 
+    private final TherapieplanToRebiopsyRequestMapper rebiopsyRequestMapper;
+
+    private final TherapieplanToRecommendationMapper recommendationMapper;
+
+    private final TherapieplanToStudyInclusionMapper studyInclusionMapper;
+
     public TherapieplanToCarePlanMapper(final MapperUtils mapperUtils) {
         super(mapperUtils);
+        this.rebiopsyRequestMapper = new TherapieplanToRebiopsyRequestMapper(mapperUtils);
+        this.recommendationMapper = new TherapieplanToRecommendationMapper(mapperUtils);
+        this.studyInclusionMapper = new TherapieplanToStudyInclusionMapper(mapperUtils);
     }
 
     @Override
     public Optional<CarePlan> apply(Procedure procedure) {
+        return map(
+                procedure,
+                () -> rebiopsyRequestMapper.apply(procedure),
+                () -> recommendationMapper.apply(procedure),
+                () -> studyInclusionMapper.apply(procedure)
+        );
+    }
+
+    /**
+     * Maps given procedure using already mapped rebiopsy requests, recommendations and study inclusion requests
+     * of the same procedure, so these will not be mapped again just to reference their IDs.
+     *
+     * @param procedure              The procedure for 'DNPM Therapieplan'
+     * @param rebiopsyRequests       The rebiopsy requests mapped from this procedure
+     * @param recommendations        The recommendations mapped from this procedure
+     * @param studyInclusionRequests The study inclusion requests mapped from this procedure
+     * @return The care plan
+     */
+    public Optional<CarePlan> apply(
+            Procedure procedure,
+            List<RebiopsyRequest> rebiopsyRequests,
+            List<Recommendation> recommendations,
+            List<StudyInclusionRequest> studyInclusionRequests
+    ) {
+        return map(procedure, () -> rebiopsyRequests, () -> recommendations, () -> studyInclusionRequests);
+    }
+
+    private Optional<CarePlan> map(
+            Procedure procedure,
+            Supplier<List<RebiopsyRequest>> rebiopsyRequests,
+            Supplier<List<Recommendation>> recommendations,
+            Supplier<List<StudyInclusionRequest>> studyInclusionRequests
+    ) {
         if (!canApply(procedure)) {
             return Optional.empty();
         }
@@ -51,7 +95,7 @@ public class TherapieplanToCarePlanMapper extends TherapieplanMapper<Optional<Ca
 
         var carePlanBuilder = CarePlan.builder()
                 .withId(anonymizeId(procedure))
-                .withIssuedOn(dateFormat().format(procedure.getStartDate()))
+                .withIssuedOn(formatDate(procedure.getStartDate()))
                 .withPatient(getPatientId(procedure))
                 .withDescription(protokollauszug == null ? "" : protokollauszug.getString());
 
@@ -62,7 +106,7 @@ public class TherapieplanToCarePlanMapper extends TherapieplanMapper<Optional<Ca
         if (targetFinding.equals("KT")) {
             final var noTargetFindingBuilder = NoTargetFinding.builder()
                     .withPatient(getPatientId(procedure))
-                    .withIssuedOn(dateFormat().format(procedure.getStartDate()));
+                    .withIssuedOn(formatDate(procedure.getStartDate()));
 
             mapperUtils.findKlinikAnamneseRelatedToTherapieplan(procedure)
                     .ifPresent(klinikAnamnese -> noTargetFindingBuilder.withDiagnosis(mapperUtils.anonymizeId(klinikAnamnese.getId().toString())));
@@ -80,7 +124,7 @@ public class TherapieplanToCarePlanMapper extends TherapieplanMapper<Optional<Ca
         var rebiopsie = procedure.getValue("mitempfehlungrebiopsie").getBoolean();
         if (rebiopsie) {
             carePlan.getRebiopsyRequests().addAll(
-                    new TherapieplanToRebiopsyRequestMapper(mapperUtils).apply(procedure).stream()
+                    rebiopsyRequests.get().stream()
                             .map(RebiopsyRequest::getId)
                             .collect(Collectors.toList())
             );
@@ -89,14 +133,14 @@ public class TherapieplanToCarePlanMapper extends TherapieplanMapper<Optional<Ca
         var einzelempfehlung = procedure.getValue("miteinzelempfehlung").getBoolean();
         if (einzelempfehlung) {
             carePlan.getRecommendations().addAll(
-                    new TherapieplanToRecommendationMapper(mapperUtils).apply(procedure).stream()
+                    recommendations.get().stream()
                             .map(Recommendation::getId)
                             .collect(Collectors.toList())
             );
         }
 
         carePlan.getStudyInclusionRequests().addAll(
-                new TherapieplanToStudyInclusionMapper(mapperUtils).apply(procedure).stream()
+                studyInclusionRequests.get().stream()
                         .map(StudyInclusionRequest::getId)
                         .collect(Collectors.toList())
         );
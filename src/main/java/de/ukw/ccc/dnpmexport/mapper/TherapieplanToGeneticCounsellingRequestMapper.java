@@ -49,7 +49,7 @@ public class TherapieplanToGeneticCounsellingRequestMapper extends TherapieplanM
                 GeneticCounsellingRequest.builder()
                         .withId(anonymizeId(procedure))
                         .withPatient(getPatientId(procedure))
-                        .withIssuedOn(dateFormat().format(procedure.getStartDate()))
+                        .withIssuedOn(formatDate(procedure.getStartDate()))
                         .withReason(procedure.getValue("humangenberbegruendung").getString())
                         .build()
         );
@@ -49,9 +49,9 @@ public class TherapieplanToHistologyReevaluationRequestMapper extends Therapiepl
         var builder = HistologyReevaluationRequest.builder()
                 .withId(anonymizeId(procedure))
                 .withPatient(getPatientId(procedure))
-                .withIssuedOn(dateFormat().format(procedure.getStartDate()));
+                .withIssuedOn(formatDate(procedure.getStartDate()));
 
-        var probe = mapperUtils.onkostarApi().getProcedure(procedure.getValue("refreevaltumorprobe").getInt());
+        var probe = mapperUtils.getProcedure(procedure.getValue("refreevaltumorprobe").getInt());
         if (null != probe && probe.getId() > 0 && probe.getEditState() == ProcedureEditStateType.COMPLETED) {
             builder.withSpecimen(mapperUtils.anonymizeId(probe.getId().toString()));
             return Optional.of(builder.build());
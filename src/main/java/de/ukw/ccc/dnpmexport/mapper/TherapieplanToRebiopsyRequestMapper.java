@@ -48,8 +48,7 @@ public class TherapieplanToRebiopsyRequestMapper extends TherapieplanMapper<List
             return List.of();
         }
 
-        return mapperUtils.onkostarApi().getProceduresForDiseaseByForm(procedure.getDiseaseIds().get(0), "DNPM UF Rebiopsie").stream()
-                .filter(p -> p.getParentProcedureId() == procedure.getId())
+        return mapperUtils.getSubProcedures(procedure, "DNPM UF Rebiopsie")
                 .filter(p ->
                         null != p.getValue("refmolekulargenetik")
                                 && !p.getValue("refmolekulargenetik").getString().isBlank()
@@ -58,9 +57,9 @@ public class TherapieplanToRebiopsyRequestMapper extends TherapieplanMapper<List
                     var builder = RebiopsyRequest.builder()
                             .withId(anonymizeId(p))
                             .withPatient(getPatientId(procedure))
-                            .withIssuedOn(dateFormat().format(procedure.getStartDate()));
+                            .withIssuedOn(formatDate(procedure.getStartDate()));
 
-                    var probe = mapperUtils.onkostarApi().getProcedure(p.getValue("refmolekulargenetik").getInt());
+                    var probe = mapperUtils.getProcedure(p.getValue("refmolekulargenetik").getInt());
                     if (null != probe && probe.getId() > 0 && probe.getEditState() == ProcedureEditStateType.COMPLETED) {
                         builder.withSpecimen(mapperUtils.anonymizeId(probe.getId().toString()));
                         return builder.build();
@@ -33,6 +33,8 @@ import java.util.stream.Collectors;
 
 public class TherapieplanToRecommendationMapper extends TherapieplanMapper<List<Recommendation>> {
 
+    private final JsonToMedicationMapper jsonToMedicationMapper = new JsonToMedicationMapper();
+
     public TherapieplanToRecommendationMapper(final MapperUtils mapperUtils) {
         super(mapperUtils);
     }
@@ -48,10 +50,8 @@ public class TherapieplanToRecommendationMapper extends TherapieplanMapper<List<
             return List.of();
         }
 
-        return mapperUtils.onkostarApi()
-                .getProceduresForDiseaseByForm(procedure.getDiseaseIds().get(0), "DNPM UF Einzelempfehlung")
-                .stream()
-                .filter(p -> p.getParentProcedureId() == procedure.getId())
+        return mapperUtils
+                .getSubProcedures(procedure, "DNPM UF Einzelempfehlung")
                 .map(p -> {
                     var molgenref = p.getValue("refosmolekulargenetik");
                     var builder = Recommendation.builder()
@@ -179,7 +179,7 @@ public class TherapieplanToRecommendationMapper extends TherapieplanMapper<List<
     }
 
     private List<Medication> medications(Procedure procedure) {
-        final var medications = new JsonToMedicationMapper().apply(procedure.getValue("wirkstoffejson").getString());
+        final var medications = jsonToMedicationMapper.apply(procedure.getValue("wirkstoffejson").getString());
         return medications.orElseGet(List::of);
     }
 
@@ -26,7 +26,7 @@ package de.ukw.ccc.dnpmexport.mapper;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import de.itc.onkostar.api.Procedure;
 import de.ukw.ccc.bwhc.dto.StudyInclusionRequest;
 import org.slf4j.Logger;
@@ -39,11 +39,11 @@ public class TherapieplanToStudyInclusionMapper extends TherapieplanMapper<List<
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
-    private final ObjectMapper objectMapper;
+    private static final ObjectReader studienReader = JsonReaders.readerFor(new TypeReference<List<Studie>>() {
+    });
 
     public TherapieplanToStudyInclusionMapper(final MapperUtils mapperUtils) {
         super(mapperUtils);
-        this.objectMapper = new ObjectMapper();
     }
 
     @Override
@@ -57,10 +57,8 @@ public class TherapieplanToStudyInclusionMapper extends TherapieplanMapper<List<
             return List.of();
         }
 
-        return mapperUtils.onkostarApi()
-                .getProceduresForDiseaseByForm(procedure.getDiseaseIds().get(0), "DNPM UF Einzelempfehlung")
-                .stream()
-                .filter(p -> p.getParentProcedureId() == procedure.getId())
+        return mapperUtils
+                .getSubProcedures(procedure, "DNPM UF Einzelempfehlung")
                 .flatMap(p -> nctNumbers(p).stream().map(nctNumber -> StudyInclusionRequest.builder()
                         .withId(mapperUtils.anonymizeId(procedure.getId().toString() + "_" + nctNumber))
                         .withPatient(getPatientId(procedure))
@@ -84,10 +82,8 @@ public class TherapieplanToStudyInclusionMapper extends TherapieplanMapper<List<
         }
 
         try {
-            return objectMapper
-                    .readValue(json, new TypeReference<List<Studie>>() {
-                    })
-                    .stream()
+            final List<Studie> studien = studienReader.readValue(json);
+            return studien.stream()
                     .map(s -> s.nct)
                     .filter(nct -> nct.toUpperCase().startsWith("NCT"))
                     .collect(Collectors.toList());
@@ -0,0 +1,350 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.services;
+
+import de.itc.onkostar.api.IOnkostarApi;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Exports all existing 'DNPM Klinik/Anamnese' procedures, e.g. after connecting a new ETL target.
+ * <p>
+ * Procedures are exported in batches of ascending procedure IDs, each batch in parallel on a fork-join pool if
+ * configured. Exports are spaced evenly to keep the configured rate. After each batch the last exported ID is saved as
+ * checkpoint to resume an interrupted backfill. The checkpoint never passes a failed export, so a resumed backfill
+ * retries it. Exports of the same patient from the export queue are not run concurrently,
+ * see {@link DnpmExportService}. Each export runs in its own read-only Hibernate session,
+ * see {@link OnkostarSessionRunner}.
+ */
+@Service
+public class BackfillService implements DisposableBean {
+
+    static final String CHECKPOINT_FILE_NAME = "backfill.checkpoint";
+
+    static final int STOP_TIMEOUT_MILLIS = 1000;
+
+    private static final String KLINIK_ANAMNESE_IDS_QUERY = "SELECT prozedur.id FROM prozedur "
+            + "JOIN data_form ON (data_form.id = prozedur.data_form_id) "
+            + "WHERE data_form.name = 'DNPM Klinik/Anamnese' AND prozedur.geloescht = 0 "
+            + "ORDER BY prozedur.id";
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final IOnkostarApi onkostarApi;
+
+    private final DnpmExportSettingsProvider settingsProvider;
+
+    private final DnpmExportService dnpmExportService;
+
+    private final OnkostarSessionRunner sessionRunner;
+
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong exported = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    // Lowest procedure ID of a failed export, Integer.MAX_VALUE if none failed
+    private final AtomicInteger lowestFailedId = new AtomicInteger(Integer.MAX_VALUE);
+
+    private volatile Thread backfillThread;
+
+    private volatile boolean cancelled;
+
+    private volatile int checkpoint;
+
+    private volatile long startedAt;
+
+    private volatile long finishedAt;
+
+    public BackfillService(
+            final IOnkostarApi onkostarApi,
+            final DnpmExportSettingsProvider settingsProvider,
+            final DnpmExportService dnpmExportService,
+            final OnkostarSessionRunner sessionRunner
+    ) {
+        this.onkostarApi = onkostarApi;
+        this.settingsProvider = settingsProvider;
+        this.dnpmExportService = dnpmExportService;
+        this.sessionRunner = sessionRunner;
+    }
+
+    /**
+     * Starts a backfill in background if none is running
+     *
+     * @param resume Skip procedures exported by an interrupted previous backfill
+     * @param force  Send MTBFiles even if unchanged since last export
+     * @return true if a new backfill has been started
+     */
+    public synchronized boolean start(boolean resume, boolean force) {
+        if (isRunning()) {
+            logger.warn("Backfill already running");
+            return false;
+        }
+
+        // Query in calling thread, since it requires the current Hibernate session
+        var ids = findKlinikAnamneseIds();
+        var resumeAfter = resume ? readCheckpoint() : 0;
+        var pending = ids.stream().filter(id -> id > resumeAfter).collect(Collectors.toList());
+
+        total.set(ids.size());
+        exported.set(0);
+        failed.set(0);
+        lowestFailedId.set(Integer.MAX_VALUE);
+        skipped.set(ids.size() - pending.size());
+        checkpoint = resumeAfter;
+        cancelled = false;
+        startedAt = System.currentTimeMillis();
+        finishedAt = 0;
+
+        backfillThread = new Thread(() -> run(pending, force), "dnpmexport-backfill");
+        backfillThread.setDaemon(true);
+        backfillThread.start();
+
+        logger.info("Backfill started: {} procedures, {} skipped", ids.size(), skipped.get());
+        return true;
+    }
+
+    /**
+     * Stops a running backfill. Procedures not exported yet are exported by a resumed backfill.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isRunning() {
+        var thread = backfillThread;
+        return null != thread && thread.isAlive();
+    }
+
+    /**
+     * Current progress of running or last backfill
+     *
+     * @return Map containing progress information
+     */
+    public Map<String, Object> getStatus() {
+        var result = new LinkedHashMap<String, Object>();
+        result.put("running", isRunning());
+        result.put("cancelled", cancelled);
+        result.put("total", total.get());
+        result.put("exported", exported.get());
+        result.put("failed", failed.get());
+        result.put("skipped", skipped.get());
+        result.put("checkpoint", checkpoint);
+        if (startedAt > 0) {
+            result.put("durationMillis", (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt);
+        }
+        return result;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        var thread = backfillThread;
+        if (null != thread) {
+            cancel();
+            thread.join(STOP_TIMEOUT_MILLIS);
+        }
+    }
+
+    List<Integer> findKlinikAnamneseIds() {
+        @SuppressWarnings("unchecked")
+        List<Object> result = onkostarApi.getSessionFactory().getCurrentSession()
+                .createSQLQuery(KLINIK_ANAMNESE_IDS_QUERY)
+                .list();
+        return result.stream()
+                .map(id -> ((Number) id).intValue())
+                .collect(Collectors.toList());
+    }
+
+    private void run(List<Integer> ids, boolean force) {
+        var settings = settingsProvider.get();
+        var parallelism = settings.getBackfillParallelism();
+        var batchSize = settings.getBackfillBatchSize();
+        var rateLimiter = new RateLimiter(settings.getBackfillRate());
+
+        var pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        try {
+            for (int from = 0; from < ids.size() && !cancelled; from += batchSize) {
+                var batch = ids.subList(from, Math.min(from + batchSize, ids.size()));
+                if (null == pool) {
+                    batch.forEach(id -> export(id, force, rateLimiter));
+                } else {
+                    pool.submit(() -> batch.parallelStream().forEach(id -> export(id, force, rateLimiter))).get();
+                }
+
+                // Do not pass a failed export, a resumed backfill has to retry it
+                checkpoint = Math.min(batch.get(batch.size() - 1), lowestFailedId.get() - 1);
+                writeCheckpoint(checkpoint);
+            }
+            if (!cancelled && failed.get() == 0) {
+                deleteCheckpoint();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelled = true;
+        } catch (ExecutionException e) {
+            logger.error("Backfill aborted", e.getCause());
+            cancelled = true;
+        } finally {
+            if (null != pool) {
+                pool.shutdown();
+            }
+            finishedAt = System.currentTimeMillis();
+            logger.info(
+                    "Backfill {}: {} procedures, {} exported, {} failed, {} skipped in {}ms",
+                    cancelled ? "cancelled" : "finished",
+                    total.get(), exported.get(), failed.get(), skipped.get(), finishedAt - startedAt
+            );
+        }
+    }
+
+    private void export(int klinikAnamneseId, boolean force, RateLimiter rateLimiter) {
+        try {
+            rateLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelled = true;
+        }
+        if (cancelled) {
+            // Not exported, the checkpoint must not pass this procedure
+            lowestFailedId.accumulateAndGet(klinikAnamneseId, Math::min);
+            return;
+        }
+        try {
+            sessionRunner.run(() -> dnpmExportService.exportKlinikAnamnese(klinikAnamneseId, force));
+            exported.incrementAndGet();
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            lowestFailedId.accumulateAndGet(klinikAnamneseId, Math::min);
+            logger.error("Backfill of Klinik/Anamnese {} failed", klinikAnamneseId, e);
+        }
+    }
+
+    private Path checkpointFile() {
+        return settingsProvider.get().getDataDir()
+                .map(dataDir -> dataDir.resolve(CHECKPOINT_FILE_NAME))
+                .orElse(null);
+    }
+
+    private int readCheckpoint() {
+        var file = checkpointFile();
+        if (null == file) {
+            // Without data dir resume from last checkpoint in memory
+            return checkpoint;
+        }
+        if (!Files.isRegularFile(file)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(Files.readString(file, StandardCharsets.UTF_8).trim());
+        } catch (IOException | NumberFormatException e) {
+            logger.warn("Cannot read backfill checkpoint '{}' - starting from first procedure", file);
+            return 0;
+        }
+    }
+
+    private void writeCheckpoint(int id) {
+        var file = checkpointFile();
+        if (null == file) {
+            return;
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            var tmp = file.resolveSibling(CHECKPOINT_FILE_NAME + ".tmp");
+            Files.writeString(tmp, Integer.toString(id), StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Cannot write backfill checkpoint '{}'", file, e);
+        }
+    }
+
+    private void deleteCheckpoint() {
+        var file = checkpointFile();
+        if (null == file) {
+            checkpoint = 0;
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.error("Cannot delete backfill checkpoint '{}'", file, e);
+        }
+    }
+
+    /**
+     * Spaces calls of {@link #acquire()} evenly to not exceed the given rate
+     */
+    static class RateLimiter {
+
+        private final long intervalNanos;
+
+        private long nextNanos = System.nanoTime();
+
+        /**
+         * @param permitsPerSecond Maximum number of permits per second, 0 for no limit
+         */
+        RateLimiter(int permitsPerSecond) {
+            this.intervalNanos = permitsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / permitsPerSecond : 0;
+        }
+
+        /**
+         * Waits until the next permit is available
+         */
+        void acquire() throws InterruptedException {
+            if (intervalNanos == 0) {
+                return;
+            }
+            long waitNanos;
+            synchronized (this) {
+                var now = System.nanoTime();
+                var slot = Math.max(nextNanos, now);
+                nextNanos = slot + intervalNanos;
+                waitNanos = slot - now;
+            }
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+
+    }
+
+}
@@ -24,73 +24,326 @@
 
 package de.ukw.ccc.dnpmexport.services;
 
-import de.itc.onkostar.api.IOnkostarApi;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import de.itc.onkostar.api.Procedure;
 import de.ukw.ccc.bwhc.dto.*;
 import de.ukw.ccc.dnpmexport.ExportException;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettings;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
 import de.ukw.ccc.dnpmexport.mapper.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Service
-public class DnpmExportService {
+public class DnpmExportService implements DisposableBean {
 
-    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    static final long OUTBOX_STOP_TIMEOUT_MILLIS = 5_000;
+
+    static final int PATIENT_LOCK_STRIPES = 64;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
 
-    private final IOnkostarApi onkostarApi;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     private final MapperUtils mapperUtils;
 
+    private final MapperRegistry mapperRegistry;
+
     private final RestTemplate restTemplate;
 
-    public DnpmExportService(final IOnkostarApi onkostarApi, final RestTemplate restTemplate) {
-        this.onkostarApi = onkostarApi;
-        this.mapperUtils = new MapperUtils(onkostarApi);
+    private final MtbFileHashStore hashStore;
+
+    private final ExportOutbox outbox;
+
+    private final MtbFileAssembler assembler;
+
+    private final ExportMetrics exportMetrics;
+
+    // Exports of the same patient, e.g. from the export queue and a backfill, must not overlap
+    private final Lock[] patientLocks = new Lock[PATIENT_LOCK_STRIPES];
+
+    public DnpmExportService(
+            final RestTemplate restTemplate,
+            final DnpmExportSettingsProvider settingsProvider,
+            final MapperRegistry mapperRegistry,
+            final ExportMetrics exportMetrics
+    ) {
+        this.mapperUtils = mapperRegistry.mapperUtils();
+        this.exportMetrics = exportMetrics;
+        this.mapperRegistry = mapperRegistry;
         this.restTemplate = restTemplate;
+
+        var settings = settingsProvider.get();
+        var dataDir = settings.getDataDir().orElse(null);
+        this.hashStore = new MtbFileHashStore(dataDir);
+        this.outbox = null == dataDir ? null : createOutbox(dataDir, settings);
+        this.assembler = new MtbFileAssembler(mapperUtils, settings.getMappingParallelism());
+        for (int i = 0; i < patientLocks.length; i++) {
+            patientLocks[i] = new ReentrantLock();
+        }
+    }
+
+    private ExportOutbox createOutbox(Path dataDir, DnpmExportSettings settings) {
+        try {
+            return new ExportOutbox(
+                    dataDir,
+                    this::sendOutboxEntry,
+                    this::outboxEntryDeadLettered,
+                    settings.getOutboxRetryInitialMillis(),
+                    settings.getOutboxRetryMaxMillis(),
+                    settings.getOutboxMaxAttempts()
+            );
+        } catch (IOException e) {
+            logger.error("Cannot use outbox in '{}' - sending directly", dataDir, e);
+            return null;
+        }
     }
 
     public void export(Procedure procedure) throws ExportException {
-        if (procedure.getFormName().equals("DNPM Klinik/Anamnese")) {
-            if (shouldExportMtbFile(procedure).orElse(false)) {
-                exportKlinikAnamneseRelatedData(procedure).ifPresent(this::sendMtbFileRequest);
-            } else {
-                sendDeleteRequest(procedure.getPatient().getPatientId());
+        export(procedure, false);
+    }
+
+    /**
+     * Exports all data related to given procedure
+     *
+     * @param procedure The procedure to be exported
+     * @param force     Send MTBFile even if it is unchanged since the last export
+     */
+    public void export(Procedure procedure, boolean force) throws ExportException {
+        mapperUtils.withProcedureGraph(() -> traced(
+                () -> findKlinikAnamnese(procedure).ifPresent(klinikAnamnese -> exportKlinikAnamnese(klinikAnamnese, force))
+        ));
+    }
+
+    /**
+     * Exports all data related to the Klinik/Anamnese procedure with given ID
+     *
+     * @param klinikAnamneseId The ID of the Klinik/Anamnese procedure
+     */
+    public void exportKlinikAnamnese(int klinikAnamneseId) throws ExportException {
+        exportKlinikAnamnese(klinikAnamneseId, false);
+    }
+
+    /**
+     * Exports all data related to the Klinik/Anamnese procedure with given ID
+     *
+     * @param klinikAnamneseId The ID of the Klinik/Anamnese procedure
+     * @param force            Send MTBFile even if it is unchanged since the last export
+     */
+    public void exportKlinikAnamnese(int klinikAnamneseId, boolean force) throws ExportException {
+        mapperUtils.withProcedureGraph(() -> traced(() -> {
+            var klinikAnamnese = mapperUtils.getProcedure(klinikAnamneseId);
+            if (null == klinikAnamnese) {
+                logger.warn("Ignoring - Klinik/Anamnese {} not found", klinikAnamneseId);
+                return;
+            }
+            exportKlinikAnamnese(klinikAnamnese, force);
+        }));
+    }
+
+    /**
+     * Checks the settings required for any export, so configuration errors can be reported to the user
+     * before an export is queued
+     *
+     * @throws ExportException if there is no valid URL of the remote system
+     */
+    public void checkConfiguration() throws ExportException {
+        var exportUrl = mapperUtils.settings().getExportUrl();
+        try {
+            if (null == exportUrl || exportUrl.isBlank() || !URI.create(exportUrl).isAbsolute()) {
+                throw new IllegalArgumentException("Not an absolute URI");
             }
+        } catch (IllegalArgumentException e) {
+            logger.error("Not a valid URI to export to: '{}'", exportUrl);
+            throw new ExportException("Keine gültige Adresse für das externe System");
+        }
+    }
+
+    /**
+     * Finds the Klinik/Anamnese procedure the given DNPM procedure belongs to
+     *
+     * @param procedure A procedure of form 'DNPM Klinik/Anamnese', 'DNPM Therapieplan' or 'DNPM FollowUp'
+     * @return The related Klinik/Anamnese procedure, if any
+     */
+    public Optional<Procedure> findKlinikAnamnese(Procedure procedure) {
+        if (procedure.getFormName().equals("DNPM Klinik/Anamnese")) {
+            return Optional.of(procedure);
         } else if (procedure.getFormName().equals("DNPM Therapieplan")) {
-            findRelatedKlinikAnamnese(procedure)
-                    .ifPresent(klinikAnamnese -> {
-                        if (shouldExportMtbFile(klinikAnamnese).orElse(false)) {
-                            exportKlinikAnamneseRelatedData(klinikAnamnese).ifPresent(this::sendMtbFileRequest);
-                        } else {
-                            sendDeleteRequest(procedure.getPatient().getPatientId());
-                        }
-                    });
+            return findRelatedKlinikAnamnese(procedure);
         } else if (procedure.getFormName().equals("DNPM FollowUp")) {
-            findRelatedEinzelempfehlung(procedure)
+            return findRelatedEinzelempfehlung(procedure)
                     .flatMap(this::findParentTherapieplan)
-                    .flatMap(this::findRelatedKlinikAnamnese)
-                    .ifPresent(klinikAnamnese -> {
-                        if (shouldExportMtbFile(klinikAnamnese).orElse(false)) {
-                            exportKlinikAnamneseRelatedData(klinikAnamnese).ifPresent(this::sendMtbFileRequest);
-                        } else {
-                            sendDeleteRequest(procedure.getPatient().getPatientId());
-                        }
-                    });
+                    .flatMap(this::findRelatedKlinikAnamnese);
         }
+        return Optional.empty();
+    }
+
+    /**
+     * Runs given export and records its trace. The outcome is set to failed if the export throws an exception.
+     *
+     * @param export The export to be run within a procedure graph
+     */
+    private void traced(Runnable export) {
+        var trace = mapperUtils.trace();
+        try {
+            export.run();
+        } catch (RuntimeException e) {
+            trace.setOutcome(ExportTrace.Outcome.FAILED);
+            throw e;
+        } finally {
+            trace.finish();
+            exportMetrics.record(trace);
+            if (mapperUtils.settings().isExportLog()) {
+                logger.info(trace.toLogLine());
+            }
+        }
+    }
+
+    private void exportKlinikAnamnese(Procedure klinikAnamnese, boolean force) throws ExportException {
+        mapperUtils.trace().setKlinikAnamneseId(klinikAnamnese.getId());
+        var patientId = klinikAnamnese.getPatient().getPatientId();
+        var patientLock = patientLocks[Math.floorMod(Objects.hashCode(patientId), patientLocks.length)];
+        patientLock.lock();
+        try {
+            if (shouldExportMtbFile(klinikAnamnese).orElse(false)) {
+                exportKlinikAnamneseRelatedData(klinikAnamnese).ifPresent(mtbFile -> sendMtbFileRequestIfChanged(mtbFile, force));
+            } else {
+                if (null != outbox) {
+                    enqueue(ExportOutbox.Type.DELETE, patientId, null, null);
+                } else {
+                    sendDeleteRequest(patientId);
+                }
+                hashStore.remove(patientId);
+                mapperUtils.trace().setOutcome(ExportTrace.Outcome.DELETED);
+            }
+        } finally {
+            patientLock.unlock();
+        }
+    }
+
+    private void sendMtbFileRequestIfChanged(MtbFile mtbFile, boolean force) throws ExportException {
+        var trace = mapperUtils.trace();
+        var patientId = mtbFile.getPatient().getId();
+        // Canonical JSON has the same size as the JSON sent
+        var digest = trace.time(ExportTrace.STAGE_SERIALIZATION, () -> MtbFileHashStore.digest(mtbFile));
+        digest.ifPresent(d -> trace.setPayloadBytes(d.getSize()));
+        var hash = digest.map(MtbFileHashStore.Digest::getHash);
+
+        if (!force && hash.isPresent() && mapperUtils.settings().isSkipUnchanged() && hashStore.isUnchanged(patientId, hash.get())) {
+            logger.debug("Ignoring - MTBFile for patient {} unchanged since last export", patientId);
+            trace.setOutcome(ExportTrace.Outcome.UNCHANGED);
+            return;
+        }
+
+        if (null != outbox) {
+            try {
+                var body = trace.time(ExportTrace.STAGE_SERIALIZATION, () -> serialize(mtbFile));
+                // Compare next export with the latest enqueued MTBFile, the outbox sends it eventually.
+                // Stored before enqueueing since the entry might be dead-lettered right away.
+                hash.ifPresent(h -> hashStore.put(patientId, h));
+                try {
+                    enqueue(ExportOutbox.Type.MTBFILE, patientId, body, hash.orElse(null));
+                } catch (ExportException e) {
+                    hash.ifPresent(h -> hashStore.remove(patientId, h));
+                    throw e;
+                }
+                trace.setOutcome(ExportTrace.Outcome.QUEUED);
+            } catch (UncheckedIOException e) {
+                logger.error("Cannot serialize MTBFile", e);
+                throw new ExportException("Kann Daten nicht für das externe System aufbereiten");
+            }
+        } else {
+            sendMtbFileRequest(mtbFile);
+            trace.setOutcome(ExportTrace.Outcome.SENT);
+            hash.ifPresent(h -> hashStore.put(patientId, h));
+        }
+    }
+
+    private static String serialize(MtbFile mtbFile) {
+        try {
+            return objectMapper.writeValueAsString(mtbFile);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void enqueue(ExportOutbox.Type type, String patientId, String body, String hash) throws ExportException {
+        try {
+            outbox.enqueue(type, patientId, body, hash);
+        } catch (IOException e) {
+            logger.error("Cannot write to outbox", e);
+            throw new ExportException("Kann Daten nicht zwischenspeichern");
+        }
+    }
+
+    /**
+     * Sends an outbox entry in the outbox thread with a procedure graph of its own
+     */
+    private void sendOutboxEntry(ExportOutbox.Entry entry, String body) throws ExportException {
+        mapperUtils.withProcedureGraph(() -> {
+            if (entry.getType() == ExportOutbox.Type.MTBFILE) {
+                sendMtbFileRequest(body.getBytes(StandardCharsets.UTF_8));
+            } else {
+                sendDeleteRequest(entry.getPatientId());
+            }
+        });
+    }
+
+    /**
+     * The remote system will not receive this MTBFile, so the next export must not be skipped as unchanged
+     */
+    private void outboxEntryDeadLettered(ExportOutbox.Entry entry) {
+        if (entry.getType() == ExportOutbox.Type.MTBFILE && null != entry.getHash()) {
+            hashStore.remove(entry.getPatientId(), entry.getHash());
+        }
+        exportMetrics.recordDeadLetter();
+    }
+
+    /**
+     * Number of requests in the outbox not yet sent to the remote system
+     *
+     * @return number of pending requests, 0 if no outbox is used
+     */
+    public int getOutboxSize() {
+        return null == outbox ? 0 : outbox.size();
+    }
+
+    /**
+     * Stops sending requests from the outbox. Pending requests will be sent after restart.
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        assembler.stop();
+        if (null != outbox) {
+            outbox.stop(OUTBOX_STOP_TIMEOUT_MILLIS);
+        }
+        hashStore.close();
     }
 
     private Optional<Procedure> findRelatedEinzelempfehlung(Procedure procedure) {
@@ -105,8 +358,8 @@ public class DnpmExportService {
         return mapperUtils.findKlinikAnamneseRelatedToTherapieplan(procedure);
     }
 
-    private void sendMtbFileRequest(MtbFile mtbFile) throws ExportException {
-        var exportUrl = onkostarApi.getGlobalSetting("dnpmexport_url");
+    private void sendMtbFileRequest(Object mtbFile) throws ExportException {
+        var exportUrl = mapperUtils.settings().getExportUrl();
 
         try {
             var uri = URI.create(exportUrl);
@@ -118,14 +371,26 @@ public class DnpmExportService {
 
             var entityReq = new HttpEntity<>(mtbFile, headers);
 
-            var r = restTemplate.postForEntity(uri, entityReq, String.class);
+            var r = mapperUtils.trace().time(
+                    ExportTrace.STAGE_HTTP,
+                    () -> restTemplate.postForEntity(uri, entityReq, String.class)
+            );
             if (!r.getStatusCode().is2xxSuccessful()) {
                 logger.warn("Error sending to remote system: {}", r.getBody());
+                if (isRejected(r.getStatusCode())) {
+                    throw new RejectedRequestException("Daten wurden vom externen System abgelehnt");
+                }
                 throw new ExportException("Kann Daten nicht an das externe System senden");
             }
         } catch (IllegalArgumentException e) {
             logger.error("Not a valid URI to export to: '{}'", exportUrl);
             throw new ExportException("Keine gültige Adresse für das externe System");
+        } catch (HttpStatusCodeException e) {
+            logger.error("Cannot send data to remote system", e);
+            if (isRejected(e.getStatusCode())) {
+                throw new RejectedRequestException("Daten wurden vom externen System abgelehnt");
+            }
+            throw new ExportException("Kann Daten nicht an das externe System senden");
         } catch (RestClientException e) {
             logger.error("Cannot send data to remote system", e);
             throw new ExportException("Kann Daten nicht an das externe System senden");
@@ -133,7 +398,7 @@ public class DnpmExportService {
     }
 
     private void sendDeleteRequest(String patientId) throws ExportException {
-        var exportUrl = onkostarApi.getGlobalSetting("dnpmexport_url");
+        var exportUrl = mapperUtils.settings().getExportUrl();
 
         try {
             var uri = URI.create(exportUrl + "/" + patientId);
@@ -145,26 +410,41 @@ public class DnpmExportService {
 
             var entityReq = new HttpEntity<>(null, headers);
 
-            restTemplate.exchange(uri, HttpMethod.DELETE, entityReq, String.class);
+            mapperUtils.trace().time(
+                    ExportTrace.STAGE_HTTP,
+                    () -> restTemplate.exchange(uri, HttpMethod.DELETE, entityReq, String.class)
+            );
         } catch (IllegalArgumentException e) {
             logger.error("Not a valid URI to export to: '{}'", exportUrl);
             throw new ExportException("Keine gültige Adresse für das externe System");
+        } catch (HttpStatusCodeException e) {
+            logger.error("Cannot send data to remote system", e);
+            if (isRejected(e.getStatusCode())) {
+                throw new RejectedRequestException("Daten wurden vom externen System abgelehnt");
+            }
+            throw new ExportException("Kann Daten nicht an das externe System senden");
         } catch (RestClientException e) {
             logger.error("Cannot send data to remote system", e);
             throw new ExportException("Kann Daten nicht an das externe System senden");
         }
     }
 
+    /**
+     * Client errors are permanent, except for timeouts and rate limiting
+     */
+    private static boolean isRejected(HttpStatus status) {
+        return status.is4xxClientError() && status != HttpStatus.REQUEST_TIMEOUT && status != HttpStatus.TOO_MANY_REQUESTS;
+    }
+
     private Optional<Boolean> shouldExportMtbFile(Procedure procedure) {
         if (null == procedure || !procedure.getFormName().equals("DNPM Klinik/Anamnese")) {
             logger.warn("Ignoring - not of form 'DNPM Klinik/Anamnese'!");
             return Optional.empty();
         }
 
-        var consent = new KlinikAnamneseToConsentMapper(mapperUtils).apply(procedure);
+        var consent = apply(mapperRegistry.get(KlinikAnamneseToConsentMapper.class), procedure);
 
-        var exportWithConsentRejected = null != onkostarApi.getGlobalSetting("dnpmexport_export_consent_rejected")
-                && onkostarApi.getGlobalSetting("dnpmexport_export_consent_rejected").equals("true");
+        var exportWithConsentRejected = mapperUtils.settings().isExportConsentRejected();
 
         return Optional.of(
                 exportWithConsentRejected || (consent.isPresent() && consent.get().getStatus() == Consent.Status.ACTIVE)
@@ -177,17 +457,17 @@ public class DnpmExportService {
             return Optional.empty();
         }
 
-        var patient = new PatientMapper().apply(procedure.getPatient());
-        var consent = new KlinikAnamneseToConsentMapper(mapperUtils).apply(procedure);
-        var episode = new KlinikAnamneseToEpisodeMapper(mapperUtils).apply(procedure);
-        var diagnose = new KlinikAnamneseToDiagnoseMapper(mapperUtils).apply(procedure);
+        var patient = apply(mapperRegistry.get(PatientMapper.class), procedure.getPatient());
+        var consent = apply(mapperRegistry.get(KlinikAnamneseToConsentMapper.class), procedure);
+        var episode = apply(mapperRegistry.get(KlinikAnamneseToEpisodeMapper.class), procedure);
+        var diagnose = apply(mapperRegistry.get(KlinikAnamneseToDiagnoseMapper.class), procedure);
 
-        var exportWithConsentRejected = null != onkostarApi.getGlobalSetting("dnpmexport_export_consent_rejected")
-                && onkostarApi.getGlobalSetting("dnpmexport_export_consent_rejected").equals("true");
+        var exportWithConsentRejected = mapperUtils.settings().isExportConsentRejected();
 
         var mtbFile = MtbFile.builder();
         if (!exportWithConsentRejected && (consent.isEmpty() || consent.get().getStatus() != Consent.Status.ACTIVE)) {
             logger.warn("Ignoring - No consent!");
+            mapperUtils.trace().setOutcome(ExportTrace.Outcome.NO_CONSENT);
             return Optional.empty();
         }
         consent.ifPresent(mtbFile::withConsent);
@@ -220,187 +500,144 @@ public class DnpmExportService {
         // Maps from Klinik/Anamnese form
         diagnose.ifPresent(diagnosis -> result.getDiagnoses().add(diagnosis));
 
-        result.getCarePlans().addAll(getCarePlans(procedure));
-        result.getFamilyMemberDiagnoses().addAll(getFamilyMemberDiagnoses(procedure));
-        result.getEcogStatus().addAll(getEcogStatusList(procedure));
-        result.getRebiopsyRequests().addAll(getRebiopsyRequests(procedure));
-        result.getRecommendations().addAll(getRecommendations(procedure));
-        result.getSpecimens().addAll(getSpecimens(procedure));
-        result.getStudyInclusionRequests().addAll(getStudyInclusionRequests(procedure));
-        result.getHistologyReevaluationRequests().addAll(getHistologyReevaluationRequests(procedure));
-        result.getGeneticCounsellingRequests().addAll(getGeneticCounsellingRequests(procedure));
-
-        /* MolGen */
-
-        result.getNgsReports().addAll(getNgsReports(procedure));
+        // Independent sections, might be mapped in parallel
+        assembler.assemble(result, List.of(
+                partial -> addTherapieplanData(procedure, partial),
+                partial -> partial.getFamilyMemberDiagnoses().addAll(getFamilyMemberDiagnoses(procedure)),
+                partial -> partial.getEcogStatus().addAll(getEcogStatusList(procedure)),
+                partial -> partial.getSpecimens().addAll(getSpecimens(procedure)),
+                partial -> partial.getHistologyReevaluationRequests().addAll(getHistologyReevaluationRequests(procedure)),
+                partial -> partial.getGeneticCounsellingRequests().addAll(getGeneticCounsellingRequests(procedure)),
+                /* MolGen */
+                partial -> partial.getNgsReports().addAll(getNgsReports(procedure)),
+                /* FollowUp */
+                partial -> addFollowUpData(procedure, partial)
+        ));
 
-        /* FollowUp */
+        return Optional.of(result);
+    }
 
-        result.getClaims().addAll(getClaims(procedure));
-        result.getClaimResponses().addAll(getClaimResponses(procedure));
-        result.getMolecularTherapies().addAll(getMolecularTherapies(procedure));
-        result.getResponses().addAll(getResponses(procedure));
+    /**
+     * Applies given mapper and adds the elapsed time to the stage named after the mapper
+     */
+    private <S, D> D apply(Mapper<S, D> mapper, S source) {
+        return timed(mapper, () -> mapper.apply(source));
+    }
 
-        return Optional.of(result);
+    private <D> D timed(Mapper<?, ?> mapper, Supplier<D> mapping) {
+        return mapperUtils.trace().time(mapper.getClass().getSimpleName(), mapping);
     }
 
     private List<Diagnosis> getDiagnoses(Procedure procedure) {
+        final var mapper = mapperRegistry.get(DiseaseToDiagnoseMapper.class);
         return procedure.getDiseases().stream()
-                .map(d -> new DiseaseToDiagnoseMapper(mapperUtils).apply(d))
+                .map(d -> apply(mapper, d))
                 .map(d -> d.orElse(null))
                 .filter(Objects::nonNull)
                 .collect(Collectors.toList());
     }
 
-    private List<CarePlan> getCarePlans(Procedure procedure) {
-        return mapperUtils.getTherapieplanRelatedToKlinikAnamnese(procedure)
-                .map(
-                        p -> new TherapieplanToCarePlanMapper(mapperUtils).apply(p)
-                )
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .collect(Collectors.toList());
+    /**
+     * Maps care plans, rebiopsy requests, recommendations and study inclusion requests of all related
+     * 'DNPM Therapieplan' procedures. Each entity is mapped once, care plans reference the already mapped entities.
+     */
+    private void addTherapieplanData(Procedure procedure, MtbFile result) {
+        final var carePlanMapper = mapperRegistry.get(TherapieplanToCarePlanMapper.class);
+        final var rebiopsyRequestMapper = mapperRegistry.get(TherapieplanToRebiopsyRequestMapper.class);
+        final var recommendationMapper = mapperRegistry.get(TherapieplanToRecommendationMapper.class);
+        final var studyInclusionMapper = mapperRegistry.get(TherapieplanToStudyInclusionMapper.class);
+
+        mapperUtils.getTherapieplanRelatedToKlinikAnamnese(procedure).forEach(therapieplan -> {
+            final var rebiopsyRequests = apply(rebiopsyRequestMapper, therapieplan);
+            final var recommendations = apply(recommendationMapper, therapieplan);
+            final var studyInclusionRequests = apply(studyInclusionMapper, therapieplan);
+
+            timed(carePlanMapper, () -> carePlanMapper.apply(therapieplan, rebiopsyRequests, recommendations, studyInclusionRequests))
+                    .ifPresent(result.getCarePlans()::add);
+            result.getRebiopsyRequests().addAll(rebiopsyRequests);
+            result.getRecommendations().addAll(recommendations);
+            result.getStudyInclusionRequests().addAll(studyInclusionRequests);
+        });
     }
 
     private List<FamilyMemberDiagnosis> getFamilyMemberDiagnoses(Procedure procedure) {
-        return new KlinikAnamneseToFamilyMemberDiagnosisMapper(mapperUtils).apply(procedure);
+        return apply(mapperRegistry.get(KlinikAnamneseToFamilyMemberDiagnosisMapper.class), procedure);
     }
 
     private List<Ecogstatus> getEcogStatusList(Procedure procedure) {
-        return new KlinikAnamneseToEcogStatusMapper(mapperUtils).apply(procedure);
-    }
-
-    private List<RebiopsyRequest> getRebiopsyRequests(Procedure procedure) {
-        return mapperUtils.getTherapieplanRelatedToKlinikAnamnese(procedure)
-                .flatMap(
-                        p -> new TherapieplanToRebiopsyRequestMapper(mapperUtils).apply(p).stream()
-                )
-                .collect(Collectors.toList());
-    }
-
-    private List<Recommendation> getRecommendations(Procedure procedure) {
-        return mapperUtils.getTherapieplanRelatedToKlinikAnamnese(procedure)
-                .flatMap(
-                        p -> new TherapieplanToRecommendationMapper(mapperUtils).apply(p).stream()
-                )
-                .collect(Collectors.toList());
+        return apply(mapperRegistry.get(KlinikAnamneseToEcogStatusMapper.class), procedure);
     }
 
     private List<Specimens> getSpecimens(Procedure procedure) {
-        return mapperUtils.getTherapieplanRelatedToKlinikAnamnese(procedure)
+        final var mapper = mapperRegistry.get(MolekulargenetikToSpecimenMapper.class);
+        final var molekulargenetikIds = mapperUtils.getTherapieplanRelatedToKlinikAnamnese(procedure)
                 .flatMap(
-                        p -> new MapperUtils(onkostarApi).getMolekulargenetikProcedureIdsForTherapieplan(p)
+                        mapperUtils::getMolekulargenetikProcedureIdsForTherapieplan
                 )
-                .distinct()
-                .map(onkostarApi::getProcedure)
-                .filter(Objects::nonNull)
-                .map(p -> new MolekulargenetikToSpecimenMapper(mapperUtils).apply(p))
+                .collect(Collectors.toList());
+        return mapperUtils.getProcedures(molekulargenetikIds).stream()
+                .map(p -> apply(mapper, p))
                 .filter(Optional::isPresent)
                 .map(Optional::get)
                 .collect(Collectors.toList());
     }
 
-    private List<StudyInclusionRequest> getStudyInclusionRequests(Procedure procedure) {
-        return mapperUtils.getTherapieplanRelatedToKlinikAnamnese(procedure)
-                .flatMap(
-                        p -> new TherapieplanToStudyInclusionMapper(mapperUtils).apply(p).stream()
-                )
-                .collect(Collectors.toList());
-    }
-
     private List<HistologyReevaluationRequest> getHistologyReevaluationRequests(Procedure procedure) {
+        final var mapper = mapperRegistry.get(TherapieplanToHistologyReevaluationRequestMapper.class);
         return mapperUtils.getTherapieplanRelatedToKlinikAnamnese(procedure)
                 .flatMap(
-                        p -> new TherapieplanToHistologyReevaluationRequestMapper(mapperUtils).apply(p).stream()
+                        p -> apply(mapper, p).stream()
                 )
                 .collect(Collectors.toList());
     }
 
     private List<GeneticCounsellingRequest> getGeneticCounsellingRequests(Procedure procedure) {
+        final var mapper = mapperRegistry.get(TherapieplanToGeneticCounsellingRequestMapper.class);
         return mapperUtils.getTherapieplanRelatedToKlinikAnamnese(procedure)
                 .flatMap(
-                        p -> new TherapieplanToGeneticCounsellingRequestMapper(mapperUtils).apply(p).stream()
+                        p -> apply(mapper, p).stream()
                 )
                 .collect(Collectors.toList());
     }
 
     private List<NgsReport> getNgsReports(Procedure procedure) {
+        final var mapper = mapperRegistry.get(MolekulargenetikToNgsReportMapper.class);
         return mapperUtils.getTherapieplanRelatedToKlinikAnamnese(procedure)
                 .flatMap(
                         mapperUtils::getMolekulargenetikProcedureIdsForTherapieplan
                 )
-                .map(onkostarApi::getProcedure)
+                .map(mapperUtils::getProcedure)
                 .filter(Objects::nonNull)
                 .map(
-                        p -> new MolekulargenetikToNgsReportMapper(mapperUtils).apply(p)
-                )
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .collect(Collectors.toList());
-    }
-
-    private List<Claim> getClaims(Procedure procedure) {
-        return mapperUtils.getTherapieplanRelatedToKlinikAnamnese(procedure)
-                .flatMap(
-                        mapperUtils::getEinzelempfehlungRelatedToTherapieplan
-                )
-                .flatMap(
-                        mapperUtils::getFollowUpsRelatedToEinzelempfehlung
-                )
-                .map(
-                        p -> new FollowUpToClaimMapper(mapperUtils).apply(p)
-                )
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .collect(Collectors.toList());
-    }
-
-    private List<ClaimResponse> getClaimResponses(Procedure procedure) {
-        return mapperUtils.getTherapieplanRelatedToKlinikAnamnese(procedure)
-                .flatMap(
-                        mapperUtils::getEinzelempfehlungRelatedToTherapieplan
-                )
-                .flatMap(
-                        mapperUtils::getFollowUpsRelatedToEinzelempfehlung
-                )
-                .map(
-                        p -> new FollowUpToClaimResponseMapper(mapperUtils).apply(p)
+                        p -> apply(mapper, p)
                 )
                 .filter(Optional::isPresent)
                 .map(Optional::get)
                 .collect(Collectors.toList());
     }
 
-    private List<MolecularTherapy> getMolecularTherapies(Procedure procedure) {
-        return mapperUtils.getTherapieplanRelatedToKlinikAnamnese(procedure)
-                .flatMap(
-                        mapperUtils::getEinzelempfehlungRelatedToTherapieplan
-                )
-                .map(
-                        mapperUtils::getFollowUpsRelatedToEinzelempfehlung
-                )
-                .map(
-                        followUp -> new MolecularTherapy(
-                                followUp.map(p -> new FollowUpToHistoryMapper(mapperUtils).apply(p)).filter(Optional::isPresent).map(Optional::get).collect(Collectors.toList())
-                        )
-                )
-                .collect(Collectors.toList());
-    }
-
-    private List<Response> getResponses(Procedure procedure) {
-        return mapperUtils.getTherapieplanRelatedToKlinikAnamnese(procedure)
-                .flatMap(
-                        mapperUtils::getEinzelempfehlungRelatedToTherapieplan
-                )
-                .flatMap(
-                        mapperUtils::getFollowUpsRelatedToEinzelempfehlung
-                )
-                .map(
-                        followUp -> new FollowUpToResponseMapper(mapperUtils).apply(followUp)
-                )
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .collect(Collectors.toList());
+    /**
+     * Maps claims, claim responses, molecular therapies and responses visiting each related 'DNPM FollowUp'
+     * procedure once. Histories of molecular therapies use the already known 'DNPM UF Einzelempfehlung'.
+     */
+    private void addFollowUpData(Procedure procedure, MtbFile result) {
+        final var claimMapper = mapperRegistry.get(FollowUpToClaimMapper.class);
+        final var claimResponseMapper = mapperRegistry.get(FollowUpToClaimResponseMapper.class);
+        final var historyMapper = mapperRegistry.get(FollowUpToHistoryMapper.class);
+        final var responseMapper = mapperRegistry.get(FollowUpToResponseMapper.class);
+
+        mapperUtils.getTherapieplanRelatedToKlinikAnamnese(procedure)
+                .flatMap(mapperUtils::getEinzelempfehlungRelatedToTherapieplan)
+                .forEach(einzelempfehlung -> {
+                    final var histories = new ArrayList<History>();
+                    mapperUtils.getFollowUpsRelatedToEinzelempfehlung(einzelempfehlung).forEach(followUp -> {
+                        apply(claimMapper, followUp).ifPresent(result.getClaims()::add);
+                        apply(claimResponseMapper, followUp).ifPresent(result.getClaimResponses()::add);
+                        timed(historyMapper, () -> historyMapper.apply(followUp, einzelempfehlung)).ifPresent(histories::add);
+                        apply(responseMapper, followUp).ifPresent(result.getResponses()::add);
+                    });
+                    result.getMolecularTherapies().add(new MolecularTherapy(histories));
+                });
     }
 
 }
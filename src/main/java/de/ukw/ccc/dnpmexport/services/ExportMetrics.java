@@ -0,0 +1,366 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.services;
+
+import de.ukw.ccc.dnpmexport.mapper.ExportTrace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Aggregates the traces of all exports and exposes them as JMX MXBean.
+ * <p>
+ * Counters and totals cover all exports since start or last reset. Percentiles of the export duration are calculated
+ * from the last {@value #WINDOW_SIZE} exports, the slowest exports are kept as log lines to find slow patients.
+ */
+@Component
+public class ExportMetrics implements ExportMetricsMXBean, InitializingBean, DisposableBean {
+
+    static final String OBJECT_NAME = "de.ukw.ccc.dnpmexport:type=ExportMetrics";
+
+    static final int WINDOW_SIZE = 1024;
+
+    static final int SLOWEST_EXPORTS = 10;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final LongAdder exportCount = new LongAdder();
+
+    private final Map<ExportTrace.Outcome, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> stageNanos = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> apiCalls = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> apiNanos = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> duplicateApiCalls = new ConcurrentHashMap<>();
+
+    // Number of Onkostar API calls of profiled exports only
+    private final LongAdder profiledApiCalls = new LongAdder();
+
+    private final LongAdder payloadBytes = new LongAdder();
+
+    private volatile long lastPayloadBytes;
+
+    // Ring buffer of the most recent export durations
+    private final long[] durations = new long[WINDOW_SIZE];
+
+    private int durationCount;
+
+    private int nextDuration;
+
+    private final PriorityQueue<SlowExport> slowestExports = new PriorityQueue<>();
+
+    private final LongAdder outboxDeadLettered = new LongAdder();
+
+    private volatile ExportQueue exportQueue;
+
+    /**
+     * Sets the export queue to provide queue counters for
+     *
+     * @param exportQueue The export queue
+     */
+    void setExportQueue(ExportQueue exportQueue) {
+        this.exportQueue = exportQueue;
+    }
+
+    /**
+     * Records a finished export
+     *
+     * @param trace The trace of the export
+     */
+    public void record(ExportTrace trace) {
+        exportCount.increment();
+        outcomes.computeIfAbsent(trace.getOutcome(), o -> new LongAdder()).increment();
+        trace.getStageNanos().forEach((stage, nanos) -> stageNanos.computeIfAbsent(stage, s -> new LongAdder()).add(nanos));
+        trace.getApiCalls().forEach((method, calls) -> apiCalls.computeIfAbsent(method, m -> new LongAdder()).add(calls));
+        if (trace.isProfiled()) {
+            profiledApiCalls.add(trace.getApiCallCount());
+            trace.getApiNanos().forEach((method, nanos) -> apiNanos.computeIfAbsent(method, m -> new LongAdder()).add(nanos));
+            trace.getDuplicateApiCalls().forEach((method, calls) -> duplicateApiCalls.computeIfAbsent(method, m -> new LongAdder()).add(calls));
+        }
+        if (trace.getPayloadBytes() > 0) {
+            payloadBytes.add(trace.getPayloadBytes());
+            lastPayloadBytes = trace.getPayloadBytes();
+        }
+
+        final var duration = trace.getDurationNanos();
+        synchronized (durations) {
+            durations[nextDuration] = duration;
+            nextDuration = (nextDuration + 1) % WINDOW_SIZE;
+            durationCount = Math.min(durationCount + 1, WINDOW_SIZE);
+
+            if (slowestExports.size() < SLOWEST_EXPORTS || slowestExports.peek().duration < duration) {
+                slowestExports.add(new SlowExport(duration, trace.toLogLine()));
+                if (slowestExports.size() > SLOWEST_EXPORTS) {
+                    slowestExports.poll();
+                }
+            }
+        }
+    }
+
+    @Override
+    public long getExportCount() {
+        return exportCount.sum();
+    }
+
+    @Override
+    public Map<String, Long> getOutcomes() {
+        var result = new TreeMap<String, Long>();
+        outcomes.forEach((outcome, count) -> result.put(outcome.name(), count.sum()));
+        return result;
+    }
+
+    @Override
+    public double getDurationMillisMean() {
+        var window = durationWindow();
+        return window.length == 0 ? 0 : millis((long) Arrays.stream(window).average().orElse(0));
+    }
+
+    @Override
+    public double getDurationMillisP50() {
+        return durationPercentile(0.5);
+    }
+
+    @Override
+    public double getDurationMillisP95() {
+        return durationPercentile(0.95);
+    }
+
+    @Override
+    public double getDurationMillisP99() {
+        return durationPercentile(0.99);
+    }
+
+    @Override
+    public double getDurationMillisMax() {
+        return durationPercentile(1.0);
+    }
+
+    @Override
+    public Map<String, Long> getStageMillis() {
+        var result = new TreeMap<String, Long>();
+        stageNanos.forEach((stage, nanos) -> result.put(stage, nanos.sum() / 1_000_000));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getApiCalls() {
+        var result = new TreeMap<String, Long>();
+        apiCalls.forEach((method, calls) -> result.put(method, calls.sum()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getApiMillis() {
+        var result = new TreeMap<String, Long>();
+        apiNanos.forEach((method, nanos) -> result.put(method, nanos.sum() / 1_000_000));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getDuplicateApiCalls() {
+        var result = new TreeMap<String, Long>();
+        duplicateApiCalls.forEach((method, calls) -> result.put(method, calls.sum()));
+        return result;
+    }
+
+    @Override
+    public double getRedundancyRatio() {
+        var calls = profiledApiCalls.sum();
+        var duplicates = duplicateApiCalls.values().stream().mapToLong(LongAdder::sum).sum();
+        return calls == 0 ? 0 : (double) duplicates / calls;
+    }
+
+    /**
+     * Records an outbox entry given up and moved to the dead letter directory
+     */
+    public void recordDeadLetter() {
+        outboxDeadLettered.increment();
+    }
+
+    @Override
+    public long getOutboxDeadLettered() {
+        return outboxDeadLettered.sum();
+    }
+
+    @Override
+    public long getQueueSubmitted() {
+        var queue = exportQueue;
+        return null == queue ? 0 : queue.getSubmittedCount();
+    }
+
+    @Override
+    public long getQueueCoalesced() {
+        var queue = exportQueue;
+        return null == queue ? 0 : queue.getCoalescedCount();
+    }
+
+    @Override
+    public long getQueueRunInCaller() {
+        var queue = exportQueue;
+        return null == queue ? 0 : queue.getRunInCallerCount();
+    }
+
+    @Override
+    public long getQueueFailed() {
+        var queue = exportQueue;
+        return null == queue ? 0 : queue.getFailedCount();
+    }
+
+    @Override
+    public int getQueueScheduled() {
+        var queue = exportQueue;
+        return null == queue ? 0 : queue.getScheduledCount();
+    }
+
+    @Override
+    public int getQueuePending() {
+        var queue = exportQueue;
+        return null == queue ? 0 : queue.getPendingCount();
+    }
+
+    @Override
+    public int getQueueActive() {
+        var queue = exportQueue;
+        return null == queue ? 0 : queue.getActiveCount();
+    }
+
+    @Override
+    public long getPayloadBytes() {
+        return payloadBytes.sum();
+    }
+
+    @Override
+    public long getLastPayloadBytes() {
+        return lastPayloadBytes;
+    }
+
+    @Override
+    public List<String> getSlowestExports() {
+        synchronized (durations) {
+            return slowestExports.stream()
+                    .sorted(Comparator.reverseOrder())
+                    .map(slowExport -> slowExport.logLine)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Override
+    public void reset() {
+        exportCount.reset();
+        outcomes.clear();
+        stageNanos.clear();
+        apiCalls.clear();
+        apiNanos.clear();
+        duplicateApiCalls.clear();
+        profiledApiCalls.reset();
+        payloadBytes.reset();
+        outboxDeadLettered.reset();
+        lastPayloadBytes = 0;
+        synchronized (durations) {
+            durationCount = 0;
+            nextDuration = 0;
+            slowestExports.clear();
+        }
+    }
+
+    /**
+     * Registers this MXBean at the platform MBean server
+     */
+    @Override
+    public void afterPropertiesSet() {
+        try {
+            var server = ManagementFactory.getPlatformMBeanServer();
+            var name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            logger.warn("Cannot register export metrics as '{}'", OBJECT_NAME, e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        try {
+            var server = ManagementFactory.getPlatformMBeanServer();
+            var name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            logger.warn("Cannot unregister export metrics '{}'", OBJECT_NAME, e);
+        }
+    }
+
+    private double durationPercentile(double percentile) {
+        var window = durationWindow();
+        if (window.length == 0) {
+            return 0;
+        }
+        Arrays.sort(window);
+        var index = (int) Math.ceil(percentile * window.length) - 1;
+        return millis(window[Math.max(0, index)]);
+    }
+
+    private long[] durationWindow() {
+        synchronized (durations) {
+            return Arrays.copyOf(durations, durationCount);
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static final class SlowExport implements Comparable<SlowExport> {
+        private final long duration;
+        private final String logLine;
+
+        private SlowExport(long duration, String logLine) {
+            this.duration = duration;
+            this.logLine = logLine;
+        }
+
+        @Override
+        public int compareTo(SlowExport other) {
+            return Long.compare(duration, other.duration);
+        }
+    }
+
+}
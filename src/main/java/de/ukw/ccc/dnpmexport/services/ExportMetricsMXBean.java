@@ -0,0 +1,88 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.services;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Export metrics available via JMX as 'de.ukw.ccc.dnpmexport:type=ExportMetrics'.
+ * Durations are in milliseconds, percentiles refer to the most recent exports.
+ * Time per Onkostar API method, duplicate calls and the redundancy ratio are available for profiled exports only.
+ * Queue counters refer to exports submitted by analyzers: submitted, coalesced into a later export, run in the
+ * submitting thread because the queue was full, failed, waiting for the quiet period, waiting for a worker and active.
+ * Dead lettered outbox entries have been rejected by the remote system or failed too often and are not sent again.
+ */
+public interface ExportMetricsMXBean {
+
+    long getExportCount();
+
+    Map<String, Long> getOutcomes();
+
+    double getDurationMillisMean();
+
+    double getDurationMillisP50();
+
+    double getDurationMillisP95();
+
+    double getDurationMillisP99();
+
+    double getDurationMillisMax();
+
+    Map<String, Long> getStageMillis();
+
+    Map<String, Long> getApiCalls();
+
+    Map<String, Long> getApiMillis();
+
+    Map<String, Long> getDuplicateApiCalls();
+
+    double getRedundancyRatio();
+
+    long getOutboxDeadLettered();
+
+    long getQueueSubmitted();
+
+    long getQueueCoalesced();
+
+    long getQueueRunInCaller();
+
+    long getQueueFailed();
+
+    int getQueueScheduled();
+
+    int getQueuePending();
+
+    int getQueueActive();
+
+    long getPayloadBytes();
+
+    long getLastPayloadBytes();
+
+    List<String> getSlowestExports();
+
+    void reset();
+
+}
@@ -0,0 +1,428 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Durable journal of pending requests to the remote system.
+ * <p>
+ * Each request is written to its own file in the outbox directory before it is sent by a background thread.
+ * Only the metadata of pending requests is kept in memory, the request body is read from the file when it is sent.
+ * A new MTBFile for a patient replaces pending MTBFiles of this patient, so outdated versions are not sent.
+ * Failed requests are retried with exponential backoff and jitter, later requests for the same patient are held back
+ * until all earlier requests for this patient have been sent. Pending requests are read again on startup.
+ * <p>
+ * Requests rejected by the remote system ({@link RejectedRequestException}) and requests still failing after the
+ * maximum number of attempts are moved to the dead letter directory, so they do not block later requests.
+ */
+class ExportOutbox {
+
+    static final String DIR_NAME = "outbox";
+
+    static final String DEAD_LETTER_DIR_NAME = "dead-letter";
+
+    private static final String FILE_SUFFIX = ".json";
+
+    private static final long IDLE_WAIT_MILLIS = 60_000;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    enum Type {
+        MTBFILE,
+        DELETE
+    }
+
+    /**
+     * Sends an outbox entry to the remote system and throws an exception if this was not successful
+     */
+    @FunctionalInterface
+    interface Sender {
+        void send(Entry entry, String body);
+    }
+
+    /**
+     * Notified by the sender thread if an entry has been moved to the dead letter directory
+     * and will not be sent again
+     */
+    @FunctionalInterface
+    interface Listener {
+        void deadLettered(Entry entry);
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final Path dir;
+
+    private final Path deadLetterDir;
+
+    private final Sender sender;
+
+    private final Listener listener;
+
+    private final long initialBackoffMillis;
+
+    private final long maxBackoffMillis;
+
+    private final int maxAttempts;
+
+    private final ConcurrentSkipListMap<Long, Entry> entries = new ConcurrentSkipListMap<>();
+
+    private final Map<Long, Retry> retries = new HashMap<>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Object lock = new Object();
+
+    private boolean signalled;
+
+    private volatile boolean running = true;
+
+    private final Thread senderThread;
+
+    private final AtomicLong deadLettered = new AtomicLong();
+
+    ExportOutbox(
+            final Path dataDir,
+            final Sender sender,
+            final Listener listener,
+            final long initialBackoffMillis,
+            final long maxBackoffMillis,
+            final int maxAttempts
+    ) throws IOException {
+        this.dir = dataDir.resolve(DIR_NAME);
+        this.deadLetterDir = dir.resolve(DEAD_LETTER_DIR_NAME);
+        this.sender = sender;
+        this.listener = listener;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.maxAttempts = maxAttempts;
+
+        Files.createDirectories(dir);
+        load();
+
+        this.senderThread = new Thread(this::runSender, "dnpmexport-outbox");
+        this.senderThread.setDaemon(true);
+        this.senderThread.start();
+    }
+
+    /**
+     * Writes a new entry to the outbox and notifies the sender
+     *
+     * @param type      The type of request
+     * @param patientId The patient ID
+     * @param body      The JSON request body, if any
+     * @param hash      The hash of the MTBFile, if any
+     */
+    void enqueue(Type type, String patientId, String body, String hash) throws IOException {
+        var entry = new Entry(sequence.incrementAndGet(), type, patientId, hash);
+
+        var json = objectMapper.createObjectNode()
+                .put("seq", entry.seq)
+                .put("type", entry.type.name())
+                .put("patientId", entry.patientId)
+                .put("body", body)
+                .put("hash", entry.hash);
+
+        var file = dir.resolve(fileName(entry.seq));
+        var tmp = dir.resolve(fileName(entry.seq) + ".tmp");
+        objectMapper.writeValue(tmp.toFile(), json);
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+
+        entries.put(entry.seq, entry);
+        if (type == Type.MTBFILE) {
+            replacePendingMtbFiles(entry);
+        }
+        signal();
+    }
+
+    /**
+     * Removes pending MTBFiles of the same patient enqueued before given entry
+     */
+    private void replacePendingMtbFiles(Entry entry) {
+        for (var pending : entries.headMap(entry.seq).values()) {
+            if (pending.type == Type.MTBFILE && pending.patientId.equals(entry.patientId) && null != entries.remove(pending.seq)) {
+                logger.debug("Outbox entry {} replaced by entry {}", pending.seq, entry.seq);
+                deleteFile(pending);
+            }
+        }
+    }
+
+    /**
+     * Number of entries not yet sent
+     *
+     * @return number of pending entries
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Number of entries moved to the dead letter directory since start
+     *
+     * @return number of dead letter entries
+     */
+    long getDeadLetterCount() {
+        return deadLettered.get();
+    }
+
+    /**
+     * Stops the sender. Pending entries remain in the outbox and will be sent after restart.
+     */
+    void stop(long timeoutMillis) throws InterruptedException {
+        running = false;
+        signal();
+        senderThread.join(timeoutMillis);
+    }
+
+    private void load() throws IOException {
+        try (var files = Files.list(dir)) {
+            for (var file : files.filter(f -> f.getFileName().toString().endsWith(FILE_SUFFIX)).collect(Collectors.toList())) {
+                try {
+                    var json = (ObjectNode) objectMapper.readTree(file.toFile());
+                    var entry = new Entry(
+                            json.get("seq").asLong(),
+                            Type.valueOf(json.get("type").asText()),
+                            json.get("patientId").asText(),
+                            json.hasNonNull("hash") ? json.get("hash").asText() : null
+                    );
+                    entries.put(entry.seq, entry);
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Ignoring unreadable outbox entry '{}'", file, e);
+                }
+            }
+        }
+        if (!entries.isEmpty()) {
+            sequence.set(entries.lastKey());
+            logger.info("Found {} pending outbox entries", entries.size());
+        }
+        // Do not reuse sequence numbers of dead letter entries
+        if (Files.isDirectory(deadLetterDir)) {
+            try (var files = Files.list(deadLetterDir)) {
+                files.map(f -> f.getFileName().toString())
+                        .filter(name -> name.endsWith(FILE_SUFFIX))
+                        .map(name -> name.substring(0, name.length() - FILE_SUFFIX.length()))
+                        .filter(seq -> seq.matches("\\d+"))
+                        .mapToLong(Long::parseLong)
+                        .max()
+                        .ifPresent(seq -> sequence.accumulateAndGet(seq, Math::max));
+            }
+        }
+    }
+
+    private void signal() {
+        synchronized (lock) {
+            signalled = true;
+            lock.notifyAll();
+        }
+    }
+
+    private void runSender() {
+        while (running) {
+            var waitMillis = drain();
+            synchronized (lock) {
+                try {
+                    if (!signalled && running) {
+                        lock.wait(waitMillis);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                signalled = false;
+            }
+        }
+    }
+
+    /**
+     * Sends all entries that are due
+     *
+     * @return time in milliseconds until the next retry is due
+     */
+    private long drain() {
+        var blockedPatients = new HashSet<String>();
+        var waitMillis = IDLE_WAIT_MILLIS;
+        // Entries might have been replaced by newer ones
+        retries.keySet().retainAll(entries.keySet());
+
+        for (var entry : entries.values()) {
+            if (!running) {
+                break;
+            }
+            if (blockedPatients.contains(entry.patientId)) {
+                continue;
+            }
+
+            var retry = retries.get(entry.seq);
+            var now = System.currentTimeMillis();
+            if (null != retry && retry.notBefore > now) {
+                blockedPatients.add(entry.patientId);
+                waitMillis = Math.min(waitMillis, retry.notBefore - now);
+                continue;
+            }
+
+            var attempts = null == retry ? 1 : retry.attempts + 1;
+            try {
+                final String body;
+                try {
+                    body = readBody(entry);
+                } catch (NoSuchFileException e) {
+                    if (!entries.containsKey(entry.seq)) {
+                        // Replaced by a newer entry meanwhile
+                        continue;
+                    }
+                    throw e;
+                }
+                sender.send(entry, body);
+                entries.remove(entry.seq);
+                retries.remove(entry.seq);
+                deleteFile(entry);
+            } catch (RejectedRequestException e) {
+                logger.error("Outbox entry {} rejected by remote system", entry.seq, e);
+                deadLetter(entry);
+            } catch (IOException | RuntimeException e) {
+                if (attempts >= maxAttempts) {
+                    logger.error("Sending outbox entry {} failed {} times - giving up", entry.seq, attempts, e);
+                    deadLetter(entry);
+                    continue;
+                }
+                var backoff = backoff(attempts);
+                retries.put(entry.seq, new Retry(attempts, now + backoff));
+                blockedPatients.add(entry.patientId);
+                waitMillis = Math.min(waitMillis, backoff);
+                logger.warn("Sending outbox entry {} failed ({} attempts) - retry in {}ms", entry.seq, attempts, backoff);
+            }
+        }
+
+        return Math.max(1, waitMillis);
+    }
+
+    /**
+     * Moves given entry to the dead letter directory, later entries for the same patient are no longer held back
+     */
+    private void deadLetter(Entry entry) {
+        retries.remove(entry.seq);
+        if (null == entries.remove(entry.seq)) {
+            // Replaced by a newer entry meanwhile
+            return;
+        }
+        var file = dir.resolve(fileName(entry.seq));
+        try {
+            Files.createDirectories(deadLetterDir);
+            Files.move(file, deadLetterDir.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.error("Cannot move outbox entry '{}' to '{}'", file, deadLetterDir, e);
+        }
+        deadLettered.incrementAndGet();
+        listener.deadLettered(entry);
+    }
+
+    private long backoff(int attempts) {
+        var delay = initialBackoffMillis << Math.min(attempts - 1, 30);
+        if (delay <= 0 || delay > maxBackoffMillis) {
+            delay = maxBackoffMillis;
+        }
+        // Jitter: use a random delay between half and full backoff
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private String readBody(Entry entry) throws IOException {
+        var json = objectMapper.readTree(dir.resolve(fileName(entry.seq)).toFile());
+        return json.hasNonNull("body") ? json.get("body").asText() : null;
+    }
+
+    /**
+     * Deletes the file of an entry not pending anymore. If this fails, the entry would be sent again after restart only.
+     */
+    private void deleteFile(Entry entry) {
+        var file = dir.resolve(fileName(entry.seq));
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.error("Cannot delete outbox entry '{}'", file, e);
+        }
+    }
+
+    private static String fileName(long seq) {
+        return String.format("%019d%s", seq, FILE_SUFFIX);
+    }
+
+    static class Entry {
+        private final long seq;
+        private final Type type;
+        private final String patientId;
+        private final String hash;
+
+        Entry(long seq, Type type, String patientId, String hash) {
+            this.seq = seq;
+            this.type = type;
+            this.patientId = patientId;
+            this.hash = hash;
+        }
+
+        long getSeq() {
+            return seq;
+        }
+
+        Type getType() {
+            return type;
+        }
+
+        String getPatientId() {
+            return patientId;
+        }
+
+        String getHash() {
+            return hash;
+        }
+    }
+
+    private static class Retry {
+        private final int attempts;
+        private final long notBefore;
+
+        Retry(int attempts, long notBefore) {
+            this.attempts = attempts;
+            this.notBefore = notBefore;
+        }
+    }
+
+}
@@ -0,0 +1,325 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.services;
+
+import de.itc.onkostar.api.Procedure;
+import de.ukw.ccc.dnpmexport.ExportException;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue of pending exports processed by a fixed number of worker threads.
+ * <p>
+ * Analyzers only submit the procedure to be exported and return immediately.
+ * The queue size limits the number of exports waiting for the quiet period or for a worker. If it is reached,
+ * {@link #submit(Procedure)} runs the export in the submitting thread to slow down further submissions.
+ * Exports are never run in the scheduler thread, so a full queue does not delay other scheduled exports.
+ * <p>
+ * If the submitting analyzer runs within a transaction, the export is scheduled after the transaction has been
+ * committed, so workers never read uncommitted data. Workers use their own Hibernate session,
+ * see {@link OnkostarSessionRunner}.
+ * <p>
+ * Errors detected while submitting, an invalid export URL or a failing lookup of the related Klinik/Anamnese,
+ * are thrown to the submitting analyzer. Errors of the queued export itself can no longer be reported to the user,
+ * they are logged and counted as failed exports.
+ * The counters of this queue are available via JMX, see {@link ExportMetrics}.
+ * <p>
+ * Submissions are coalesced by the related Klinik/Anamnese procedure: an export is started only after no further
+ * submission for the same Klinik/Anamnese was received within the quiet period.
+ */
+@Component
+public class ExportQueue implements DisposableBean {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final DnpmExportService dnpmExportService;
+
+    private final OnkostarSessionRunner sessionRunner;
+
+    private final ThreadPoolExecutor executor;
+
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    private final Map<Integer, PendingExport> pendingExports = new ConcurrentHashMap<>();
+
+    // One permit for each export waiting for the quiet period or for a worker
+    private final Semaphore capacity;
+
+    private final int shutdownTimeoutSeconds;
+
+    private final int quietPeriodMillis;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong runInCaller = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public ExportQueue(
+            final DnpmExportSettingsProvider settingsProvider,
+            final DnpmExportService dnpmExportService,
+            final OnkostarSessionRunner sessionRunner,
+            final ExportMetrics exportMetrics
+    ) {
+        var settings = settingsProvider.get();
+        this.dnpmExportService = dnpmExportService;
+        this.sessionRunner = sessionRunner;
+        this.shutdownTimeoutSeconds = settings.getExportShutdownTimeoutSeconds();
+        this.quietPeriodMillis = settings.getExportQuietPeriodMillis();
+
+        var workers = settings.getExportWorkers();
+        var capacity = settings.getExportQueueSize();
+
+        this.capacity = new Semaphore(capacity);
+        // Queue is bounded by the permits acquired in submit()
+        this.executor = new ThreadPoolExecutor(
+                workers,
+                workers,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                new WorkerThreadFactory("dnpmexport-worker-")
+        );
+        this.scheduler = new ScheduledThreadPoolExecutor(1, new WorkerThreadFactory("dnpmexport-scheduler-"));
+        this.scheduler.setRemoveOnCancelPolicy(true);
+        exportMetrics.setExportQueue(this);
+        logger.info(
+                "Export queue started with {} workers, capacity of {} and quiet period of {}ms",
+                workers, capacity, quietPeriodMillis
+        );
+    }
+
+    /**
+     * Submits given procedure for export.
+     * The export of the related Klinik/Anamnese is (re)scheduled to run after the quiet period.
+     *
+     * @param procedure The procedure to be exported
+     * @throws ExportException if the export is not configured properly or the related Klinik/Anamnese
+     *                         cannot be determined
+     */
+    public void submit(Procedure procedure) throws ExportException {
+        submitted.incrementAndGet();
+
+        final Optional<Procedure> klinikAnamnese;
+        try {
+            dnpmExportService.checkConfiguration();
+            klinikAnamnese = dnpmExportService.findKlinikAnamnese(procedure);
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            logger.error("Cannot submit procedure {} for export", procedure.getId(), e);
+            throw e;
+        }
+
+        if (klinikAnamnese.isEmpty()) {
+            logger.debug("Ignoring procedure {} - no related Klinik/Anamnese", procedure.getId());
+            return;
+        }
+
+        var klinikAnamneseId = klinikAnamnese.get().getId();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Workers must not read the procedure before the transaction of the analyzer has been committed
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    scheduleOrRun(klinikAnamneseId);
+                }
+            });
+        } else {
+            scheduleOrRun(klinikAnamneseId);
+        }
+    }
+
+    private void scheduleOrRun(int klinikAnamneseId) {
+        if (!schedule(klinikAnamneseId)) {
+            runInCaller.incrementAndGet();
+            logger.warn("Export queue is full ({} exports waiting) - running export in calling thread", getScheduledCount() + getPendingCount());
+            export(klinikAnamneseId);
+        }
+    }
+
+    /**
+     * Schedules the export of given Klinik/Anamnese, replacing an already scheduled export.
+     * A new scheduled export requires a free permit, the permit of a replaced export is taken over.
+     *
+     * @return false if the queue is full
+     */
+    private boolean schedule(int klinikAnamneseId) {
+        try {
+            var result = pendingExports.compute(klinikAnamneseId, (id, previous) -> {
+                if (null != previous) {
+                    previous.future.cancel(false);
+                    coalesced.incrementAndGet();
+                } else if (!capacity.tryAcquire()) {
+                    return null;
+                }
+                var pendingExport = new PendingExport();
+                try {
+                    pendingExport.future = scheduler.schedule(() -> dispatch(id, pendingExport), quietPeriodMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    if (null == previous) {
+                        capacity.release();
+                    }
+                    throw e;
+                }
+                return pendingExport;
+            });
+            return null != result;
+        } catch (RejectedExecutionException e) {
+            logger.warn("Export queue is shut down - export of Klinik/Anamnese {} not processed", klinikAnamneseId);
+            return true;
+        }
+    }
+
+    private void dispatch(int klinikAnamneseId, PendingExport pendingExport) {
+        // Only the latest scheduled export for this Klinik/Anamnese is handed over to the workers
+        if (pendingExports.remove(klinikAnamneseId, pendingExport)) {
+            try {
+                executor.execute(() -> {
+                    capacity.release();
+                    export(klinikAnamneseId);
+                });
+            } catch (RejectedExecutionException e) {
+                capacity.release();
+                logger.warn("Export queue is shut down - export of Klinik/Anamnese {} not processed", klinikAnamneseId);
+            }
+        }
+    }
+
+    private void export(int klinikAnamneseId) {
+        try {
+            sessionRunner.run(() -> dnpmExportService.exportKlinikAnamnese(klinikAnamneseId));
+            completed.incrementAndGet();
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            logger.error("Export of Klinik/Anamnese {} failed", klinikAnamneseId, e);
+        }
+    }
+
+    /**
+     * Number of exports waiting for a worker
+     *
+     * @return number of pending exports
+     */
+    public int getPendingCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Number of exports waiting for the quiet period to elapse
+     *
+     * @return number of scheduled exports
+     */
+    public int getScheduledCount() {
+        return pendingExports.size();
+    }
+
+    /**
+     * Number of exports currently processed by workers
+     *
+     * @return number of active exports
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Number of exports run in the submitting thread because the queue was full
+     *
+     * @return number of exports run in calling thread
+     */
+    public long getRunInCallerCount() {
+        return runInCaller.get();
+    }
+
+    /**
+     * Number of submissions merged into a later export of the same Klinik/Anamnese
+     *
+     * @return number of coalesced submissions
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * Stops accepting new exports, starts scheduled exports without waiting for the quiet period
+     * and waits for pending exports to finish
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        logger.info("Shutting down export queue with {} scheduled and {} pending exports", getScheduledCount(), getPendingCount());
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(shutdownTimeoutSeconds, TimeUnit.SECONDS);
+        pendingExports.forEach(this::dispatch);
+        executor.shutdown();
+        if (!executor.awaitTermination(shutdownTimeoutSeconds, TimeUnit.SECONDS)) {
+            var dropped = executor.shutdownNow();
+            logger.error("Export queue not drained within {}s - {} exports not processed", shutdownTimeoutSeconds, dropped.size());
+        }
+    }
+
+    private static class PendingExport {
+        private volatile ScheduledFuture<?> future;
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final String namePrefix;
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        WorkerThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            var thread = new Thread(runnable, namePrefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
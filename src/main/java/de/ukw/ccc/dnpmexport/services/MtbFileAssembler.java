@@ -0,0 +1,156 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.services;
+
+import de.ukw.ccc.bwhc.dto.MtbFile;
+import de.ukw.ccc.dnpmexport.mapper.MapperUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs independent branches adding sections to an {@link MtbFile}.
+ * <p>
+ * With a parallelism of 1 all branches run sequentially in the calling thread. Otherwise, branches run on a bounded
+ * executor, each one filling its own partial MtbFile using the procedure graph of the calling export. Partial results are
+ * merged in the order of the branches, so the result is the same as for sequential assembly.
+ * If the executor is busy, branches run in the calling thread.
+ * <p>
+ * Branches access the Onkostar API concurrently, so a parallelism greater than 1 requires that the Onkostar API and its
+ * Hibernate session can be used by several threads at once. Running branches are never interrupted, since an interrupt
+ * might break the database connection used by the Onkostar API.
+ */
+class MtbFileAssembler {
+
+    static final int QUEUE_SIZE_PER_THREAD = 8;
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final MapperUtils mapperUtils;
+
+    private final ThreadPoolExecutor executor;
+
+    MtbFileAssembler(final MapperUtils mapperUtils, final int parallelism) {
+        this.mapperUtils = mapperUtils;
+        if (parallelism > 1) {
+            final var threadCount = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(
+                    parallelism,
+                    parallelism,
+                    KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(parallelism * QUEUE_SIZE_PER_THREAD),
+                    runnable -> {
+                        var thread = new Thread(runnable, "dnpmexport-mapping-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    new ThreadPoolExecutor.CallerRunsPolicy()
+            );
+            this.executor.allowCoreThreadTimeOut(true);
+        } else {
+            this.executor = null;
+        }
+    }
+
+    boolean isParallel() {
+        return null != executor;
+    }
+
+    /**
+     * Runs all branches and adds their results to given MtbFile
+     *
+     * @param result   The MtbFile to add sections to
+     * @param branches The branches, each one adding independent sections
+     */
+    void assemble(MtbFile result, List<Consumer<MtbFile>> branches) {
+        if (null == executor) {
+            branches.forEach(branch -> branch.accept(result));
+            return;
+        }
+
+        final var partials = new ArrayList<MtbFile>(branches.size());
+        final var futures = new ArrayList<Future<?>>(branches.size());
+        for (var branch : branches) {
+            final var partial = MtbFile.builder().build();
+            partials.add(partial);
+            futures.add(executor.submit(mapperUtils.withCurrentProcedureGraph(() -> branch.accept(partial))));
+        }
+
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                await(futures.get(i));
+                merge(partials.get(i), result);
+            }
+        } finally {
+            // Skip branches not started yet, but let running branches finish
+            futures.forEach(future -> future.cancel(false));
+        }
+    }
+
+    void stop() {
+        if (null != executor) {
+            executor.shutdown();
+        }
+    }
+
+    private static void await(Future<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while mapping MTBFile", e);
+        } catch (ExecutionException e) {
+            var cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Cannot map MTBFile", cause);
+        }
+    }
+
+    private static void merge(MtbFile source, MtbFile target) {
+        target.getCarePlans().addAll(source.getCarePlans());
+        target.getFamilyMemberDiagnoses().addAll(source.getFamilyMemberDiagnoses());
+        target.getEcogStatus().addAll(source.getEcogStatus());
+        target.getRebiopsyRequests().addAll(source.getRebiopsyRequests());
+        target.getRecommendations().addAll(source.getRecommendations());
+        target.getSpecimens().addAll(source.getSpecimens());
+        target.getStudyInclusionRequests().addAll(source.getStudyInclusionRequests());
+        target.getHistologyReevaluationRequests().addAll(source.getHistologyReevaluationRequests());
+        target.getGeneticCounsellingRequests().addAll(source.getGeneticCounsellingRequests());
+        target.getNgsReports().addAll(source.getNgsReports());
+        target.getClaims().addAll(source.getClaims());
+        target.getClaimResponses().addAll(source.getClaimResponses());
+        target.getMolecularTherapies().addAll(source.getMolecularTherapies());
+        target.getResponses().addAll(source.getResponses());
+    }
+
+}
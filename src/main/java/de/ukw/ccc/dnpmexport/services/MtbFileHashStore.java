@@ -0,0 +1,250 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.services;
+
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import de.ukw.ccc.bwhc.dto.MtbFile;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the hash of the last sent MTBFile per patient, or of the last one written to the outbox.
+ * <p>
+ * If a data directory is given, hashes are persisted in a properties file and survive restarts,
+ * otherwise they are kept in memory only. Changes are written to the file in the background at most every
+ * {@value #FLUSH_INTERVAL_MILLIS}ms and on {@link #close()}, not on each change.
+ */
+class MtbFileHashStore {
+
+    static final String FILE_NAME = "mtbfile-hashes.properties";
+
+    static final long FLUSH_INTERVAL_MILLIS = 5_000;
+
+    private static final ObjectMapper canonicalMapper = new ObjectMapper()
+            .configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true)
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final Properties hashes = new Properties();
+
+    private final Path file;
+
+    // Serializes writes of the file, not held while hashes are changed
+    private final Object fileLock = new Object();
+
+    private final ScheduledExecutorService flusher;
+
+    private boolean dirty;
+
+    MtbFileHashStore(final Path dataDir) {
+        this.file = null == dataDir ? null : dataDir.resolve(FILE_NAME);
+        load();
+        if (null == file) {
+            this.flusher = null;
+        } else {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                var thread = new Thread(runnable, "dnpmexport-hash-store");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Computes a stable hash of the canonical JSON representation of given MTBFile
+     *
+     * @param mtbFile The MTBFile
+     * @return The SHA-256 hash as hex string or an empty Optional if the MTBFile could not be serialized
+     */
+    static Optional<String> hash(MtbFile mtbFile) {
+        return digest(mtbFile).map(Digest::getHash);
+    }
+
+    /**
+     * Computes hash and size of the canonical JSON representation of given MTBFile, with sorted properties.
+     * The JSON is streamed through the digest and not kept in memory.
+     *
+     * @param mtbFile The MTBFile
+     * @return The digest or an empty Optional if the MTBFile could not be serialized
+     */
+    static Optional<Digest> digest(MtbFile mtbFile) {
+        var counter = new CountingOutputStream(OutputStream.nullOutputStream());
+        var out = new DigestOutputStream(counter, DigestUtils.getSha256Digest());
+        try {
+            canonicalMapper.writeValue(out, mtbFile);
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+        return Optional.of(new Digest(Hex.encodeHexString(out.getMessageDigest().digest()), counter.count));
+    }
+
+    synchronized boolean isUnchanged(String patientId, String hash) {
+        return hash.equals(hashes.getProperty(patientId));
+    }
+
+    synchronized void put(String patientId, String hash) {
+        if (!hash.equals(hashes.setProperty(patientId, hash))) {
+            dirty = true;
+        }
+    }
+
+    synchronized void remove(String patientId) {
+        if (null != hashes.remove(patientId)) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Removes the hash of given patient if it is still the given hash
+     */
+    synchronized void remove(String patientId, String hash) {
+        if (hashes.remove(patientId, hash)) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes all changes to the file, if any
+     */
+    void flush() {
+        if (null == file) {
+            return;
+        }
+        synchronized (fileLock) {
+            final Properties snapshot;
+            synchronized (this) {
+                if (!dirty) {
+                    return;
+                }
+                snapshot = (Properties) hashes.clone();
+                dirty = false;
+            }
+            if (!store(snapshot)) {
+                synchronized (this) {
+                    dirty = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops writing in background and writes pending changes
+     */
+    void close() {
+        if (null != flusher) {
+            flusher.shutdown();
+        }
+        flush();
+    }
+
+    private void load() {
+        if (null == file || !Files.isRegularFile(file)) {
+            return;
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            hashes.load(in);
+        } catch (IOException e) {
+            logger.error("Cannot read MTBFile hashes from '{}' - all MTBFiles will be sent", file, e);
+        }
+    }
+
+    private boolean store(Properties snapshot) {
+        try {
+            Files.createDirectories(file.getParent());
+            var tmp = file.resolveSibling(FILE_NAME + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                snapshot.store(out, "DNPM-Export - last sent MTBFile per patient");
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            logger.error("Cannot write MTBFile hashes to '{}'", file, e);
+            return false;
+        }
+    }
+
+    /**
+     * Hash and size of the canonical JSON representation of an MTBFile
+     */
+    static class Digest {
+        private final String hash;
+
+        private final long size;
+
+        Digest(String hash, long size) {
+            this.hash = hash;
+            this.size = size;
+        }
+
+        String getHash() {
+            return hash;
+        }
+
+        long getSize() {
+            return size;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+}
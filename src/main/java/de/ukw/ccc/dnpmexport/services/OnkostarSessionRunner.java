@@ -0,0 +1,85 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.services;
+
+import de.itc.onkostar.api.IOnkostarApi;
+import org.hibernate.FlushMode;
+import org.springframework.orm.hibernate4.SessionHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Runs tasks in threads not started by Onkostar, e.g. export workers or the backfill thread.
+ * <p>
+ * The Onkostar API uses the Hibernate session bound to the current thread. For each task a new session with a
+ * read-only transaction is opened and bound to the current thread the same way Spring's transaction management does.
+ * If the current thread already has a session, e.g. the thread of an analyzer, the task uses that session.
+ */
+@Component
+public class OnkostarSessionRunner {
+
+    private final IOnkostarApi onkostarApi;
+
+    public OnkostarSessionRunner(final IOnkostarApi onkostarApi) {
+        this.onkostarApi = onkostarApi;
+    }
+
+    /**
+     * Runs given task with a Hibernate session bound to the current thread
+     *
+     * @param task The task using the Onkostar API
+     */
+    public void run(Runnable task) {
+        var sessionFactory = onkostarApi.getSessionFactory();
+        if (TransactionSynchronizationManager.hasResource(sessionFactory)) {
+            task.run();
+            return;
+        }
+
+        var session = sessionFactory.openSession();
+        try {
+            session.setDefaultReadOnly(true);
+            session.setFlushMode(FlushMode.MANUAL);
+            var sessionHolder = new SessionHolder(session);
+            TransactionSynchronizationManager.bindResource(sessionFactory, sessionHolder);
+            try {
+                var transaction = session.beginTransaction();
+                sessionHolder.setTransaction(transaction);
+                try {
+                    task.run();
+                    transaction.commit();
+                } catch (RuntimeException | Error e) {
+                    transaction.rollback();
+                    throw e;
+                }
+            } finally {
+                TransactionSynchronizationManager.unbindResource(sessionFactory);
+            }
+        } finally {
+            session.close();
+        }
+    }
+
+}
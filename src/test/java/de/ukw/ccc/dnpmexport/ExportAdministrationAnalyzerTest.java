@@ -0,0 +1,129 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.ukw.ccc.dnpmexport;
+
+import de.itc.onkostar.api.IOnkostarApi;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
+import de.ukw.ccc.dnpmexport.services.BackfillService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ExportAdministrationAnalyzerTest {
+
+    private IOnkostarApi onkostarApi;
+
+    private BackfillService backfillService;
+
+    private ExportAdministrationAnalyzer analyzer;
+
+    @BeforeEach
+    void setup(
+            @Mock IOnkostarApi onkostarApi,
+            @Mock BackfillService backfillService
+    ) {
+        this.onkostarApi = onkostarApi;
+        this.backfillService = backfillService;
+        this.analyzer = new ExportAdministrationAnalyzer(onkostarApi, new DnpmExportSettingsProvider(onkostarApi), backfillService);
+    }
+
+    @AfterEach
+    void cleanup() {
+        SecurityContextHolder.clearContext();
+    }
+
+    private void useBackfillRole(String role) {
+        doAnswer(invocationOnMock -> {
+            var name = invocationOnMock.getArgument(0, String.class);
+            if (name.equals("dnpmexport_backfill_role")) {
+                return role;
+            }
+            return null;
+        }).when(onkostarApi).getGlobalSetting(anyString());
+    }
+
+    private void authenticate(String... authorities) {
+        var authentication = new TestingAuthenticationToken("user", "secret", authorities);
+        SecurityContextHolder.getContext().setAuthentication(authentication);
+    }
+
+    @Test
+    void shouldStartBackfillWithConfiguredRole() {
+        useBackfillRole("ROLE_DNPM_ADMIN");
+        authenticate("ROLE_USER", "ROLE_DNPM_ADMIN");
+        when(backfillService.getStatus()).thenReturn(Map.of("running", true));
+
+        var result = analyzer.startBackfill(Map.of("resume", "true"));
+
+        verify(backfillService, times(1)).start(true, false);
+        assertThat(result).containsEntry("running", true);
+    }
+
+    @Test
+    void shouldDenyBackfillWithoutConfiguredRole() {
+        useBackfillRole("ROLE_DNPM_ADMIN");
+        authenticate("ROLE_USER");
+
+        assertThatThrownBy(() -> analyzer.startBackfill(Map.of())).isInstanceOf(AccessDeniedException.class);
+        assertThatThrownBy(() -> analyzer.cancelBackfill(Map.of())).isInstanceOf(AccessDeniedException.class);
+
+        verify(backfillService, never()).start(anyBoolean(), anyBoolean());
+        verify(backfillService, never()).cancel();
+    }
+
+    @Test
+    void shouldDenyBackfillIfNoRoleConfigured() {
+        useBackfillRole(null);
+        authenticate("ROLE_DNPM_ADMIN");
+
+        assertThatThrownBy(() -> analyzer.startBackfill(Map.of())).isInstanceOf(AccessDeniedException.class);
+
+        verify(backfillService, never()).start(anyBoolean(), anyBoolean());
+    }
+
+    @Test
+    void shouldDenyBackfillWithoutAuthentication() {
+        useBackfillRole("ROLE_DNPM_ADMIN");
+
+        assertThatThrownBy(() -> analyzer.cancelBackfill(Map.of())).isInstanceOf(AccessDeniedException.class);
+
+        verify(backfillService, never()).cancel();
+    }
+
+}
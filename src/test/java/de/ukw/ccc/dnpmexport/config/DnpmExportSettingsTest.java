@@ -0,0 +1,140 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.config;
+
+import de.itc.onkostar.api.IOnkostarApi;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class DnpmExportSettingsTest {
+
+    private IOnkostarApi onkostarApi;
+
+    @BeforeEach
+    void setup(@Mock IOnkostarApi onkostarApi) {
+        this.onkostarApi = onkostarApi;
+    }
+
+    private void useSettings(Map<String, String> settings) {
+        doAnswer(invocationOnMock -> settings.get(invocationOnMock.getArgument(0, String.class)))
+                .when(onkostarApi).getGlobalSetting(anyString());
+    }
+
+    @Test
+    void shouldUseDefaultsWithoutSettings() {
+        var settings = DnpmExportSettings.load(onkostarApi);
+
+        assertThat(settings.getExportUrl()).isNull();
+        assertThat(settings.getPrefix()).isNull();
+        assertThat(settings.isExportConsentRejected()).isFalse();
+        assertThat(settings.isSkipUnchanged()).isTrue();
+        assertThat(settings.getDataDir()).isEmpty();
+        assertThat(settings.getExportWorkers()).isEqualTo(DnpmExportSettings.DEFAULT_EXPORT_WORKERS);
+        assertThat(settings.getExportQuietPeriodMillis()).isEqualTo(DnpmExportSettings.DEFAULT_EXPORT_QUIET_PERIOD_MILLIS);
+        assertThat(settings.isJdkHttpClient()).isFalse();
+        assertThat(settings.getBackfillRole()).isNull();
+    }
+
+    @Test
+    void shouldParseSettings() {
+        useSettings(Map.of(
+                "dnpmexport_url", "http://example.com/mtbfile",
+                "dnpmexport_prefix", "TEST",
+                "dnpmexport_export_consent_rejected", "true",
+                "dnpmexport_skip_unchanged", "false",
+                "dnpmexport_data_dir", " /tmp/dnpmexport ",
+                "dnpmexport_export_quiet_period", "0",
+                "dnpmexport_http_client", "JDK",
+                "dnpmexport_backfill_role", " ROLE_DNPM_ADMIN "
+        ));
+
+        var settings = DnpmExportSettings.load(onkostarApi);
+
+        assertThat(settings.getExportUrl()).isEqualTo("http://example.com/mtbfile");
+        assertThat(settings.getPrefix()).isEqualTo("TEST");
+        assertThat(settings.isExportConsentRejected()).isTrue();
+        assertThat(settings.isSkipUnchanged()).isFalse();
+        assertThat(settings.getDataDir()).contains(Path.of("/tmp/dnpmexport"));
+        assertThat(settings.getExportQuietPeriodMillis()).isZero();
+        assertThat(settings.isJdkHttpClient()).isTrue();
+        assertThat(settings.getBackfillRole()).isEqualTo("ROLE_DNPM_ADMIN");
+    }
+
+    @Test
+    void shouldUseDefaultsForInvalidNumbers() {
+        useSettings(Map.of(
+                "dnpmexport_export_workers", "0",
+                "dnpmexport_export_queue_size", "many"
+        ));
+
+        var settings = DnpmExportSettings.load(onkostarApi);
+
+        assertThat(settings.getExportWorkers()).isEqualTo(DnpmExportSettings.DEFAULT_EXPORT_WORKERS);
+        assertThat(settings.getExportQueueSize()).isEqualTo(DnpmExportSettings.DEFAULT_EXPORT_QUEUE_SIZE);
+    }
+
+    @Test
+    void shouldReadSettingsOnceWithinTimeToLive() {
+        var settingsProvider = new DnpmExportSettingsProvider(onkostarApi);
+
+        var first = settingsProvider.get();
+        var second = settingsProvider.get();
+
+        assertThat(second).isSameAs(first);
+        verify(onkostarApi, times(1)).getGlobalSetting("dnpmexport_url");
+    }
+
+    @Test
+    void shouldReloadSettingsUsedByEachExportOnly() {
+        useSettings(Map.of(
+                "dnpmexport_url", "http://example.com/mtbfile",
+                "dnpmexport_export_workers", "4"
+        ));
+        var settings = DnpmExportSettings.load(onkostarApi);
+
+        useSettings(Map.of(
+                "dnpmexport_url", "http://example.com/other",
+                "dnpmexport_export_workers", "8"
+        ));
+        var reloaded = settings.reload(onkostarApi);
+
+        assertThat(reloaded.getExportUrl()).isEqualTo("http://example.com/other");
+        assertThat(reloaded.getExportWorkers()).isEqualTo(4);
+        verify(onkostarApi, times(1)).getGlobalSetting("dnpmexport_export_workers");
+        verify(onkostarApi, times(2)).getGlobalSetting("dnpmexport_url");
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.config;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GzipClientHttpRequestFactoryTest {
+
+    private HttpServer server;
+
+    private final AtomicReference<String> receivedContentEncoding = new AtomicReference<>();
+    private final AtomicReference<String> receivedBody = new AtomicReference<>();
+
+    private RestTemplate restTemplate;
+
+    @BeforeEach
+    void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/mtbfile", exchange -> {
+            var contentEncoding = exchange.getRequestHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+            receivedContentEncoding.set(contentEncoding);
+            var in = "gzip".equals(contentEncoding) ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody();
+            receivedBody.set(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            exchange.sendResponseHeaders(202, -1);
+            exchange.close();
+        });
+        server.start();
+
+        restTemplate = new RestTemplate(new GzipClientHttpRequestFactory(new SimpleClientHttpRequestFactory(), 64));
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    private HttpEntity<byte[]> jsonEntity(String json) {
+        var headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new HttpEntity<>(json.getBytes(StandardCharsets.UTF_8), headers);
+    }
+
+    @Test
+    void shouldNotCompressSmallRequestBody() {
+        restTemplate.postForEntity(uri("/mtbfile"), jsonEntity("{\"test\":true}"), String.class);
+
+        assertThat(receivedContentEncoding.get()).isNull();
+        assertThat(receivedBody.get()).isEqualTo("{\"test\":true}");
+    }
+
+    @Test
+    void shouldCompressLargeRequestBody() {
+        var json = "{\"variants\":[" + "{\"gene\":\"BRAF\",\"dnaChange\":\"c.1799T>A\"},".repeat(100) + "{}]}";
+
+        restTemplate.postForEntity(uri("/mtbfile"), jsonEntity(json), String.class);
+
+        assertThat(receivedContentEncoding.get()).isEqualTo("gzip");
+        assertThat(receivedBody.get()).isEqualTo(json);
+    }
+
+    @Test
+    void shouldNotCompressRequestWithoutBody() {
+        restTemplate.exchange(uri("/mtbfile/12345"), HttpMethod.DELETE, new HttpEntity<>(null, new HttpHeaders()), String.class);
+
+        assertThat(receivedContentEncoding.get()).isNull();
+        assertThat(receivedBody.get()).isEmpty();
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.config;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class JdkClientHttpRequestFactoryTest {
+
+    private HttpServer server;
+
+    private final AtomicReference<String> receivedMethod = new AtomicReference<>();
+    private final AtomicReference<String> receivedBody = new AtomicReference<>();
+    private final AtomicReference<String> receivedContentType = new AtomicReference<>();
+
+    private RestTemplate restTemplate;
+
+    @BeforeEach
+    void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/mtbfile", exchange -> {
+            receivedMethod.set(exchange.getRequestMethod());
+            receivedContentType.set(exchange.getRequestHeaders().getFirst(HttpHeaders.CONTENT_TYPE));
+            receivedBody.set(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            exchange.sendResponseHeaders(202, -1);
+            exchange.close();
+        });
+        server.createContext("/error", exchange -> {
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+        });
+        server.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(202, -1);
+            exchange.close();
+        });
+        server.start();
+
+        restTemplate = new RestTemplate(new JdkClientHttpRequestFactory(Duration.ofSeconds(1), Duration.ofMillis(200), false));
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    @Test
+    void shouldSendPostRequest() {
+        var headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+
+        var response = restTemplate.postForEntity(uri("/mtbfile"), new HttpEntity<>("{\"test\":true}", headers), String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+        assertThat(receivedMethod.get()).isEqualTo("POST");
+        assertThat(receivedContentType.get()).isEqualTo("application/json");
+        assertThat(receivedBody.get()).isEqualTo("{\"test\":true}");
+    }
+
+    @Test
+    void shouldSendDeleteRequest() {
+        restTemplate.exchange(uri("/mtbfile/12345"), HttpMethod.DELETE, new HttpEntity<>(null, new HttpHeaders()), String.class);
+
+        assertThat(receivedMethod.get()).isEqualTo("DELETE");
+        assertThat(receivedBody.get()).isEmpty();
+    }
+
+    @Test
+    void shouldHandleErrorResponse() {
+        assertThatThrownBy(() -> restTemplate.postForEntity(uri("/error"), "{}", String.class))
+                .isInstanceOf(HttpServerErrorException.class);
+    }
+
+    @Test
+    void shouldApplyRequestTimeout() {
+        assertThatThrownBy(() -> restTemplate.postForEntity(uri("/slow"), "{}", String.class))
+                .isInstanceOf(ResourceAccessException.class);
+    }
+
+    @Test
+    void shouldStreamPostRequestBody() {
+        var streamingRestTemplate = new RestTemplate(new JdkClientHttpRequestFactory(Duration.ofSeconds(1), Duration.ofSeconds(5), false, 1024));
+        var json = "{\"variants\":[" + "{\"gene\":\"BRAF\"},".repeat(10_000) + "{}]}";
+
+        var headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        var response = streamingRestTemplate.postForEntity(uri("/mtbfile"), new HttpEntity<>(json, headers), String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+        assertThat(receivedBody.get()).isEqualTo(json);
+    }
+
+    @Test
+    void shouldSendDeleteRequestWithoutBodyIfStreaming() {
+        var streamingRestTemplate = new RestTemplate(new JdkClientHttpRequestFactory(Duration.ofSeconds(1), Duration.ofSeconds(5), false, 1024));
+
+        streamingRestTemplate.exchange(uri("/mtbfile/12345"), HttpMethod.DELETE, new HttpEntity<>(null, new HttpHeaders()), String.class);
+
+        assertThat(receivedMethod.get()).isEqualTo("DELETE");
+        assertThat(receivedBody.get()).isEmpty();
+    }
+
+}
@@ -26,6 +26,7 @@ package de.ukw.ccc.dnpmexport.mapper;
 
 import de.itc.onkostar.api.IOnkostarApi;
 import de.itc.onkostar.api.Item;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -50,7 +51,7 @@ public class FollowUpToClaimMapperTest {
             @Mock IOnkostarApi onkostarApi
     ) {
         this.onkostarApi = onkostarApi;
-        this.mapper = new FollowUpToClaimMapper(new MapperUtils(onkostarApi));
+        this.mapper = new FollowUpToClaimMapper(new MapperUtils(onkostarApi, new DnpmExportSettingsProvider(onkostarApi)));
     }
 
     @Test
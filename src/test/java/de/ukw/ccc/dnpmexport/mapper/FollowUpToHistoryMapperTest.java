@@ -26,9 +26,11 @@ package de.ukw.ccc.dnpmexport.mapper;
 
 import de.itc.onkostar.api.IOnkostarApi;
 import de.itc.onkostar.api.Item;
+import de.itc.onkostar.api.Procedure;
 import de.ukw.ccc.bwhc.dto.History;
 import de.ukw.ccc.bwhc.dto.Medication;
 import de.ukw.ccc.bwhc.dto.MolekularTherapyReasonStopped;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -38,18 +40,21 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import java.time.Instant;
 import java.util.Date;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static de.ukw.ccc.dnpmexport.mapper.FollowUpToHistoryMapper.*;
 import static de.ukw.ccc.dnpmexport.test.TestUtils.createEinzelempfehlungProcedure;
 import static de.ukw.ccc.dnpmexport.test.TestUtils.createFollowUpProcedure;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.anyInt;
-import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 public class FollowUpToHistoryMapperTest {
 
     private IOnkostarApi onkostarApi;
+    private MapperUtils mapperUtils;
     private FollowUpToHistoryMapper mapper;
 
     @BeforeEach
@@ -57,7 +62,14 @@ public class FollowUpToHistoryMapperTest {
             @Mock IOnkostarApi onkostarApi
     ) {
         this.onkostarApi = onkostarApi;
-        this.mapper = new FollowUpToHistoryMapper(new MapperUtils(onkostarApi));
+        this.mapperUtils = new MapperUtils(onkostarApi, new DnpmExportSettingsProvider(onkostarApi));
+        this.mapper = new FollowUpToHistoryMapper(this.mapperUtils);
+    }
+
+    private Optional<History> apply(Procedure procedure) {
+        var result = new AtomicReference<Optional<History>>();
+        this.mapperUtils.withProcedureGraph(() -> result.set(this.mapper.apply(procedure)));
+        return result.get();
     }
 
     @Test
@@ -76,7 +88,7 @@ public class FollowUpToHistoryMapperTest {
 
         doAnswer(invocationOnMock -> einzelempfehlung).when(onkostarApi).getProcedure(anyInt());
 
-        var history = this.mapper.apply(procedure);
+        var history = apply(procedure);
 
         assertThat(history).isNotEmpty();
         assertThat(history.get().getId()).matches("UNKNOWN[a-z0-9]+");
@@ -101,13 +113,33 @@ public class FollowUpToHistoryMapperTest {
 
         doAnswer(invocationOnMock -> einzelempfehlung).when(onkostarApi).getProcedure(anyInt());
 
-        var history = this.mapper.apply(procedure);
+        var history = apply(procedure);
 
         assertThat(history).isNotEmpty();
         assertThat(history.get().getMedication()).hasSize(1);
         assertThat(history.get().getMedication().get(0)).isEqualTo(Medication.builder().withCode("Test").withSystem(Medication.System.UNREGISTERED).build());
     }
 
+    @Test
+    void shouldUseKnownEinzelempfehlungForMedication() throws Exception {
+        var procedure = createFollowUpProcedure(this.onkostarApi);
+        procedure.setValue(FIELD_NAME_RECORDED_ON, new Item(FIELD_NAME_RECORDED_ON, Date.from(Instant.parse("2024-05-14T12:00:00Z"))));
+        procedure.setValue(FIELD_NAME_STATUS, new Item(FIELD_NAME_STATUS, "on-going"));
+        procedure.setValue(FIELD_NAME_BASED_ON, new Item(FIELD_NAME_BASED_ON, "11"));
+
+        var einzelempfehlung = createEinzelempfehlungProcedure(
+                this.onkostarApi,
+                procedure,
+                List.of(Medication.builder().withCode("Test").withSystem(Medication.System.UNREGISTERED).build())
+        );
+
+        var history = this.mapper.apply(procedure, einzelempfehlung);
+
+        assertThat(history).isNotEmpty();
+        assertThat(history.get().getMedication()).hasSize(1);
+        verify(onkostarApi, never()).getProcedure(anyInt());
+    }
+
     @Test
     void shouldMapToHistoryWithPeriod() {
         var procedure = createFollowUpProcedure(this.onkostarApi);
@@ -118,7 +150,7 @@ public class FollowUpToHistoryMapperTest {
         procedure.setValue(FIELD_NAME_PERIOD_START, new Item(FIELD_NAME_PERIOD_START, Date.from(Instant.parse("2024-05-12T12:00:00Z"))));
         procedure.setValue(FIELD_NAME_PERIOD_END, new Item(FIELD_NAME_PERIOD_END, Date.from(Instant.parse("2024-05-13T12:00:00Z"))));
 
-        var history = this.mapper.apply(procedure);
+        var history = apply(procedure);
 
         assertThat(history).isNotEmpty();
         assertThat(history.get().getPeriod()).isNotNull();
@@ -135,7 +167,7 @@ public class FollowUpToHistoryMapperTest {
 
         procedure.setValue(FIELD_NAME_PERIOD_START, new Item(FIELD_NAME_PERIOD_START, Date.from(Instant.parse("2024-05-12T12:00:00Z"))));
 
-        var history = this.mapper.apply(procedure);
+        var history = apply(procedure);
 
         assertThat(history).isNotEmpty();
         assertThat(history.get().getPeriod()).isNotNull();
@@ -152,7 +184,7 @@ public class FollowUpToHistoryMapperTest {
 
         procedure.setValue(FIELD_NAME_DOSAGE, new Item(FIELD_NAME_DOSAGE, "k"));
 
-        var history = this.mapper.apply(procedure);
+        var history = apply(procedure);
 
         assertThat(history).isNotEmpty();
         assertThat(history.get().getDosage()).isEqualTo(History.Dosage._50_);
@@ -168,7 +200,7 @@ public class FollowUpToHistoryMapperTest {
 
         procedure.setValue(FIELD_NAME_DOSAGE, new Item(FIELD_NAME_DOSAGE, "g"));
 
-        var history = this.mapper.apply(procedure);
+        var history = apply(procedure);
 
         assertThat(history).isNotEmpty();
         assertThat(history.get().getDosage()).isEqualTo(History.Dosage._50);
@@ -184,7 +216,7 @@ public class FollowUpToHistoryMapperTest {
 
         procedure.setValue(FIELD_NAME_REASON_STOPPED, new Item(FIELD_NAME_REASON_STOPPED, "pw"));
 
-        var history = this.mapper.apply(procedure);
+        var history = apply(procedure);
 
         assertThat(history).isNotEmpty();
         assertThat(history.get().getReasonStopped().getCode()).isEqualTo(MolekularTherapyReasonStopped.MolecularTherapyStopReason.PATIENT_WISH);
@@ -199,7 +231,7 @@ public class FollowUpToHistoryMapperTest {
 
         procedure.setValue(FIELD_NAME_REASON_STOPPED, new Item(FIELD_NAME_REASON_STOPPED, "someunknownvalue"));
 
-        var history = this.mapper.apply(procedure);
+        var history = apply(procedure);
 
         assertThat(history).isNotEmpty();
         assertThat(history.get().getReasonStopped().getCode()).isEqualTo(MolekularTherapyReasonStopped.MolecularTherapyStopReason.UNKNOWN);
@@ -215,7 +247,7 @@ public class FollowUpToHistoryMapperTest {
 
         procedure.setValue(FIELD_NAME_REASON_STOPPED, new Item(FIELD_NAME_REASON_STOPPED, "bsc"));
 
-        var history = this.mapper.apply(procedure);
+        var history = apply(procedure);
 
         assertThat(history).isNotEmpty();
         assertThat(history.get().getReasonStopped().getCode()).isEqualTo(MolekularTherapyReasonStopped.MolecularTherapyStopReason.OTHER);
@@ -229,7 +261,7 @@ public class FollowUpToHistoryMapperTest {
 
         procedure.setValue(FIELD_NAME_REASON_STOPPED, new Item(FIELD_NAME_REASON_STOPPED, "pw"));
 
-        var history = this.mapper.apply(procedure);
+        var history = apply(procedure);
 
         assertThat(history).isEmpty();
     }
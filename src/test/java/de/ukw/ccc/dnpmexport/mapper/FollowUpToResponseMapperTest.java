@@ -27,6 +27,7 @@ package de.ukw.ccc.dnpmexport.mapper;
 import de.itc.onkostar.api.IOnkostarApi;
 import de.itc.onkostar.api.Item;
 import de.ukw.ccc.bwhc.dto.Value;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -51,7 +52,7 @@ public class FollowUpToResponseMapperTest {
             @Mock IOnkostarApi onkostarApi
     ) {
         this.onkostarApi = onkostarApi;
-        this.mapper = new FollowUpToResponseMapper(new MapperUtils(onkostarApi));
+        this.mapper = new FollowUpToResponseMapper(new MapperUtils(onkostarApi, new DnpmExportSettingsProvider(onkostarApi)));
     }
 
     @Test
@@ -0,0 +1,106 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.mapper;
+
+import de.itc.onkostar.api.IOnkostarApi;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class InstrumentedOnkostarApiTest {
+
+    private IOnkostarApi onkostarApi;
+
+    @BeforeEach
+    void setUp(
+            @Mock IOnkostarApi onkostarApi
+    ) {
+        this.onkostarApi = onkostarApi;
+    }
+
+    private ProcedureGraph procedureGraph(boolean apiProfiling) {
+        doAnswer(invocationOnMock -> {
+            var name = invocationOnMock.getArgument(0, String.class);
+            return name.equals("dnpmexport_api_profiling") ? String.valueOf(apiProfiling) : null;
+        }).when(onkostarApi).getGlobalSetting(anyString());
+
+        return new ProcedureGraph(onkostarApi, new DnpmExportSettingsProvider(onkostarApi));
+    }
+
+    private static void callApi(IOnkostarApi api) {
+        api.getProcedure(1);
+        api.getProcedure(1);
+        api.getProcedure(2);
+        api.getProceduresForDiseaseByForm(1, "DNPM Therapieplan");
+        api.getProceduresForDiseaseByForm(1, "DNPM Therapieplan");
+    }
+
+    @Test
+    void shouldCountCallsWithinExport() {
+        var procedureGraph = procedureGraph(false);
+
+        callApi(InstrumentedOnkostarApi.wrap(onkostarApi, () -> procedureGraph));
+
+        var trace = procedureGraph.getTrace();
+        assertThat(trace.getApiCalls()).isEqualTo(Map.of("getProcedure", 3L, "getProceduresForDiseaseByForm", 2L));
+        assertThat(trace.isProfiled()).isFalse();
+        assertThat(trace.getDuplicateApiCalls()).isEmpty();
+    }
+
+    @Test
+    void shouldDetectDuplicateCallsIfProfiling() {
+        var procedureGraph = procedureGraph(true);
+
+        callApi(InstrumentedOnkostarApi.wrap(onkostarApi, () -> procedureGraph));
+
+        var trace = procedureGraph.getTrace();
+        assertThat(trace.isProfiled()).isTrue();
+        assertThat(trace.getApiNanos()).containsOnlyKeys("getProcedure", "getProceduresForDiseaseByForm");
+        assertThat(trace.getDuplicateApiCalls()).isEqualTo(Map.of("getProcedure", 1L, "getProceduresForDiseaseByForm", 1L));
+        assertThat(trace.getRedundancyRatio()).isEqualTo(0.4);
+        assertThat(trace.toLogLine()).contains("api_duplicates=2 api_redundancy=0.400");
+    }
+
+    @Test
+    void shouldPassCallsOutsideOfExportThrough() {
+        var api = InstrumentedOnkostarApi.wrap(onkostarApi, () -> null);
+
+        api.getProcedure(1);
+
+        verify(onkostarApi, times(1)).getProcedure(1);
+        verify(onkostarApi, never()).getGlobalSetting(anyString());
+    }
+
+}
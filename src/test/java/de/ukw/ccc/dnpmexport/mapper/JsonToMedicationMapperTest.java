@@ -26,6 +26,7 @@ package de.ukw.ccc.dnpmexport.mapper;
 
 import de.ukw.ccc.bwhc.dto.Medication;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
@@ -58,6 +59,23 @@ public class JsonToMedicationMapperTest {
         assertThat(medication.get().get(0).getVersion()).isEqualTo(version);
     }
 
+    @Test
+    void shouldReuseResultForSameJson() {
+        final var json = "[{\"code\":\"L01XE01\", \"name\":\"Imatinib\", \"system\":\"ATC\", \"version\":\"2024\"}]";
+
+        final var first = mapper.apply(json);
+        final var second = new JsonToMedicationMapper().apply(new String(json));
+
+        assertThat(first).isPresent();
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    void shouldReturnEmptyResultForInvalidJson() {
+        assertThat(mapper.apply("no json")).isEmpty();
+        assertThat(mapper.apply(null)).isEmpty();
+    }
+
     private static Stream<Arguments> provideTestData() {
         return Stream.of(
                 Arguments.of("[{\"code\":\"B01AC06\", \"name\":\"Acetylsalicylsäure\", \"system\":\"ATC\", \"version\":\"\"}]", "B01AC06", "Acetylsalicylsäure", Medication.System.UNREGISTERED, ""),
@@ -3,6 +3,7 @@ package de.ukw.ccc.dnpmexport.mapper;
 import de.itc.onkostar.api.IOnkostarApi;
 import de.itc.onkostar.api.Item;
 import de.ukw.ccc.bwhc.dto.WhoGrade;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -25,7 +26,7 @@ public class KlinikAnamneseToDiagnoseMapperTest {
             @Mock IOnkostarApi onkostarApi
     ) {
         this.onkostarApi = onkostarApi;
-        this.mapper = new KlinikAnamneseToDiagnoseMapper(new MapperUtils(onkostarApi));
+        this.mapper = new KlinikAnamneseToDiagnoseMapper(new MapperUtils(onkostarApi, new DnpmExportSettingsProvider(onkostarApi)));
     }
 
     @Test
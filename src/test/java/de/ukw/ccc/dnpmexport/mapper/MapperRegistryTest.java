@@ -0,0 +1,82 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.mapper;
+
+import de.itc.onkostar.api.IOnkostarApi;
+import de.ukw.ccc.bwhc.dto.CarePlan;
+import de.ukw.ccc.bwhc.dto.Claim;
+import de.ukw.ccc.bwhc.dto.Consent;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@ExtendWith(MockitoExtension.class)
+public class MapperRegistryTest {
+
+    private MapperRegistry mapperRegistry;
+
+    @BeforeEach
+    void setUp(
+            @Mock IOnkostarApi onkostarApi
+    ) {
+        this.mapperRegistry = new MapperRegistry(onkostarApi, new DnpmExportSettingsProvider(onkostarApi));
+    }
+
+    @Test
+    void shouldReturnSameMapperInstance() {
+        var first = mapperRegistry.get(TherapieplanToCarePlanMapper.class);
+        var second = mapperRegistry.get(TherapieplanToCarePlanMapper.class);
+
+        assertThat(first).isNotNull().isSameAs(second);
+    }
+
+    @Test
+    void shouldFindMapperByFormNameAndDtoType() {
+        assertThat(mapperRegistry.find("DNPM Therapieplan", CarePlan.class))
+                .containsSame(mapperRegistry.get(TherapieplanToCarePlanMapper.class));
+        assertThat(mapperRegistry.find("DNPM FollowUp", Claim.class))
+                .containsSame(mapperRegistry.get(FollowUpToClaimMapper.class));
+        assertThat(mapperRegistry.find("DNPM Klinik/Anamnese", Consent.class))
+                .containsSame(mapperRegistry.get(KlinikAnamneseToConsentMapper.class));
+    }
+
+    @Test
+    void shouldNotFindUnknownMapping() {
+        assertThat(mapperRegistry.find("DNPM Therapieplan", Claim.class)).isEmpty();
+        assertThat(mapperRegistry.find("Unknown", CarePlan.class)).isEmpty();
+    }
+
+    @Test
+    void shouldThrowExceptionForUnregisteredMapperClass() {
+        assertThatThrownBy(() -> mapperRegistry.get(Mapper.class)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.mapper;
+
+import de.itc.onkostar.api.IOnkostarApi;
+import de.itc.onkostar.api.Item;
+import de.itc.onkostar.api.Procedure;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+
+import static de.ukw.ccc.dnpmexport.test.TestUtils.createEinzelempfehlungProcedure;
+import static de.ukw.ccc.dnpmexport.test.TestUtils.createTherapieplanProcedure;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class MapperUtilsTest {
+
+    private IOnkostarApi onkostarApi;
+    private MapperUtils mapperUtils;
+
+    @BeforeEach
+    void setUp(
+            @Mock IOnkostarApi onkostarApi
+    ) {
+        this.onkostarApi = onkostarApi;
+        this.mapperUtils = new MapperUtils(onkostarApi, new DnpmExportSettingsProvider(onkostarApi));
+    }
+
+    @Test
+    void shouldRequestProceduresOncePerDiseaseAndFormWithinProcedureGraph() {
+        var therapieplan = createTherapieplanProcedure(this.onkostarApi);
+        doAnswer(invocationOnMock -> List.of(therapieplan)).when(onkostarApi).getProceduresForDiseaseByForm(anyInt(), anyString());
+
+        this.mapperUtils.withProcedureGraph(() -> {
+            assertThat(this.mapperUtils.getProceduresForDiseaseByForm(1, "DNPM Therapieplan")).containsExactly(therapieplan);
+            assertThat(this.mapperUtils.getProceduresForDiseaseByForm(1, "DNPM Therapieplan")).containsExactly(therapieplan);
+            assertThat(this.mapperUtils.getProceduresForDiseaseByForm(1, "DNPM FollowUp")).containsExactly(therapieplan);
+        });
+
+        verify(onkostarApi, times(1)).getProceduresForDiseaseByForm(1, "DNPM Therapieplan");
+        verify(onkostarApi, times(1)).getProceduresForDiseaseByForm(1, "DNPM FollowUp");
+    }
+
+    @Test
+    void shouldFailWithoutProcedureGraph() {
+        assertThatThrownBy(() -> this.mapperUtils.getProceduresForDiseaseByForm(1, "DNPM Therapieplan"))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> this.mapperUtils.trace()).isInstanceOf(IllegalStateException.class);
+
+        verify(onkostarApi, never()).getProceduresForDiseaseByForm(anyInt(), anyString());
+    }
+
+    @Test
+    void shouldNotReuseProcedureGraphForNextExport() {
+        doAnswer(invocationOnMock -> List.of()).when(onkostarApi).getProceduresForDiseaseByForm(anyInt(), anyString());
+
+        this.mapperUtils.withProcedureGraph(() -> this.mapperUtils.getProceduresForDiseaseByForm(1, "DNPM Therapieplan"));
+        this.mapperUtils.withProcedureGraph(() -> this.mapperUtils.getProceduresForDiseaseByForm(1, "DNPM Therapieplan"));
+
+        verify(onkostarApi, times(2)).getProceduresForDiseaseByForm(1, "DNPM Therapieplan");
+    }
+
+    @Test
+    void shouldRequestMtbProcedureOncePerExport() throws Exception {
+        var therapieplan = createTherapieplanProcedure(this.onkostarApi);
+        var einzelempfehlung = createEinzelempfehlungProcedure(this.onkostarApi, therapieplan);
+        einzelempfehlung.setValue("ufeedatum", new Item("ufeedatum", ""));
+        var otherEinzelempfehlung = createEinzelempfehlungProcedure(this.onkostarApi, therapieplan);
+        otherEinzelempfehlung.setId(12);
+        otherEinzelempfehlung.setValue("ufeedatum", new Item("ufeedatum", ""));
+
+        var mtb = new Procedure(this.onkostarApi);
+        mtb.setId(42);
+        mtb.setFormName("OS.Tumorkonferenz");
+        mtb.setValue("Datum", new Item("Datum", "2024-05-14"));
+        doAnswer(invocationOnMock -> mtb).when(onkostarApi).getProcedure(anyInt());
+
+        this.mapperUtils.withProcedureGraph(() -> {
+            assertThat(this.mapperUtils.einzelempfehlungMtbDate(einzelempfehlung)).isEqualTo("2024-05-14");
+            assertThat(this.mapperUtils.einzelempfehlungMtbDate(otherEinzelempfehlung)).isEqualTo("2024-05-14");
+        });
+
+        verify(onkostarApi, times(1)).getProcedure(42);
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.mapper;
+
+import de.itc.onkostar.api.IOnkostarApi;
+import de.itc.onkostar.api.Item;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+
+import static de.ukw.ccc.dnpmexport.test.TestUtils.createEinzelempfehlungProcedure;
+import static de.ukw.ccc.dnpmexport.test.TestUtils.createFollowUpProcedure;
+import static de.ukw.ccc.dnpmexport.test.TestUtils.createTherapieplanProcedure;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ProcedureGraphTest {
+
+    private IOnkostarApi onkostarApi;
+    private ProcedureGraph procedureGraph;
+
+    @BeforeEach
+    void setUp(
+            @Mock IOnkostarApi onkostarApi
+    ) {
+        this.onkostarApi = onkostarApi;
+        this.procedureGraph = new ProcedureGraph(onkostarApi, new DnpmExportSettingsProvider(onkostarApi));
+    }
+
+    @Test
+    void shouldReturnSubProceduresOfParent() throws Exception {
+        var therapieplan = createTherapieplanProcedure(this.onkostarApi);
+        var otherTherapieplan = createTherapieplanProcedure(this.onkostarApi);
+        otherTherapieplan.setId(2);
+
+        var einzelempfehlung = createEinzelempfehlungProcedure(this.onkostarApi, therapieplan);
+        var otherEinzelempfehlung = createEinzelempfehlungProcedure(this.onkostarApi, otherTherapieplan);
+        otherEinzelempfehlung.setId(12);
+
+        doAnswer(invocationOnMock -> List.of(einzelempfehlung, otherEinzelempfehlung))
+                .when(onkostarApi).getProceduresForDiseaseByForm(anyInt(), anyString());
+
+        assertThat(procedureGraph.getSubProcedures(1, "DNPM UF Einzelempfehlung", 1)).containsExactly(einzelempfehlung);
+        assertThat(procedureGraph.getSubProcedures(1, "DNPM UF Einzelempfehlung", 2)).containsExactly(otherEinzelempfehlung);
+        assertThat(procedureGraph.getSubProcedures(1, "DNPM UF Einzelempfehlung", 3)).isEmpty();
+
+        verify(onkostarApi, times(1)).getProceduresForDiseaseByForm(1, "DNPM UF Einzelempfehlung");
+    }
+
+    @Test
+    void shouldReturnProceduresReferencingProcedure() {
+        var followUp = createFollowUpProcedure(this.onkostarApi);
+        followUp.setValue("LinkTherapieempfehlung", new Item("LinkTherapieempfehlung", 11));
+        var otherFollowUp = createFollowUpProcedure(this.onkostarApi);
+        otherFollowUp.setId(2);
+        otherFollowUp.setValue("LinkTherapieempfehlung", new Item("LinkTherapieempfehlung", 12));
+        var followUpWithoutReference = createFollowUpProcedure(this.onkostarApi);
+        followUpWithoutReference.setId(3);
+
+        doAnswer(invocationOnMock -> List.of(followUp, otherFollowUp, followUpWithoutReference))
+                .when(onkostarApi).getProceduresForDiseaseByForm(anyInt(), anyString());
+
+        assertThat(procedureGraph.getReferencingProcedures(1, "DNPM FollowUp", "LinkTherapieempfehlung", 11)).containsExactly(followUp);
+        assertThat(procedureGraph.getReferencingProcedures(1, "DNPM FollowUp", "LinkTherapieempfehlung", 12)).containsExactly(otherFollowUp);
+        assertThat(procedureGraph.getProceduresForDiseaseByForm(1, "DNPM FollowUp")).hasSize(3);
+
+        verify(onkostarApi, times(1)).getProceduresForDiseaseByForm(1, "DNPM FollowUp");
+    }
+
+    @Test
+    void shouldRequestProcedureByIdOnce() {
+        var therapieplan = createTherapieplanProcedure(this.onkostarApi);
+
+        doAnswer(invocationOnMock -> therapieplan).when(onkostarApi).getProcedure(anyInt());
+
+        assertThat(procedureGraph.getProcedure(1)).isSameAs(therapieplan);
+        assertThat(procedureGraph.getProcedure(1)).isSameAs(therapieplan);
+
+        verify(onkostarApi, times(1)).getProcedure(1);
+    }
+
+    @Test
+    void shouldNotRequestProcedureByIdIfPartOfRequestedList() throws Exception {
+        var therapieplan = createTherapieplanProcedure(this.onkostarApi);
+        var einzelempfehlung = createEinzelempfehlungProcedure(this.onkostarApi, therapieplan);
+
+        doAnswer(invocationOnMock -> List.of(einzelempfehlung))
+                .when(onkostarApi).getProceduresForDiseaseByForm(anyInt(), anyString());
+
+        procedureGraph.getProceduresForDiseaseByForm(1, "DNPM UF Einzelempfehlung");
+
+        assertThat(procedureGraph.getProcedure(einzelempfehlung.getId())).isSameAs(einzelempfehlung);
+
+        verify(onkostarApi, never()).getProcedure(anyInt());
+    }
+
+    @Test
+    void shouldRequestEachDistinctProcedureIdOnce() {
+        var therapieplan = createTherapieplanProcedure(this.onkostarApi);
+
+        doAnswer(invocationOnMock -> {
+            var procedureId = invocationOnMock.getArgument(0, Integer.class);
+            return procedureId == 1 ? therapieplan : null;
+        }).when(onkostarApi).getProcedure(anyInt());
+
+        assertThat(procedureGraph.getProcedures(List.of(1, 2, 1))).containsExactly(therapieplan);
+        assertThat(procedureGraph.getProcedure(2)).isNull();
+
+        verify(onkostarApi, times(1)).getProcedure(1);
+        verify(onkostarApi, times(1)).getProcedure(2);
+    }
+
+}
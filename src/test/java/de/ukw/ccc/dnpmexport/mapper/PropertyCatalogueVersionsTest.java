@@ -0,0 +1,111 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.mapper;
+
+import de.itc.onkostar.api.IOnkostarApi;
+import org.hibernate.SQLQuery;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PropertyCatalogueVersionsTest {
+
+    private IOnkostarApi onkostarApi;
+    private PropertyCatalogueVersions catalogueVersions;
+
+    @BeforeEach
+    void setUp(
+            @Mock IOnkostarApi onkostarApi
+    ) {
+        this.onkostarApi = onkostarApi;
+        this.catalogueVersions = new PropertyCatalogueVersions(onkostarApi);
+    }
+
+    @Test
+    void shouldRequestOidOnlyOnce() {
+        doAnswer(invocationOnMock -> "icd10gmversion2023").when(onkostarApi).getPropertyCatalogueVersionOid(anyInt());
+
+        assertThat(catalogueVersions.getVersion(1)).isEqualTo("2023");
+        assertThat(catalogueVersions.getSanitizedVersion(1)).contains("2023");
+        assertThat(catalogueVersions.getVersion(1)).isEqualTo("2023");
+
+        verify(onkostarApi, times(1)).getPropertyCatalogueVersionOid(1);
+    }
+
+    @Test
+    void shouldHandleMissingOid() {
+        doAnswer(invocationOnMock -> null).when(onkostarApi).getPropertyCatalogueVersionOid(anyInt());
+
+        assertThat(catalogueVersions.getVersion(1)).isEmpty();
+        assertThat(catalogueVersions.getSanitizedVersion(1)).isEmpty();
+        assertThat(catalogueVersions.size()).isZero();
+        verify(onkostarApi, times(2)).getPropertyCatalogueVersionOid(1);
+    }
+
+    @Test
+    void shouldSanitizeLocalisationVersion() {
+        doAnswer(invocationOnMock -> "LOK Version 3.2").when(onkostarApi).getPropertyCatalogueVersionOid(anyInt());
+
+        assertThat(catalogueVersions.getSanitizedVersion(2)).contains(" 3.2");
+    }
+
+    @Test
+    void shouldPreloadIcdVersions(
+            @Mock SessionFactory sessionFactory,
+            @Mock Session session,
+            @Mock SQLQuery query
+    ) {
+        doAnswer(invocationOnMock -> sessionFactory).when(onkostarApi).getSessionFactory();
+        doAnswer(invocationOnMock -> session).when(sessionFactory).openSession();
+        doAnswer(invocationOnMock -> query).when(session).createSQLQuery(anyString());
+        doAnswer(invocationOnMock -> List.of(
+                new Object[]{1, "icd10gmversion2023"},
+                new Object[]{2, "LOK Version 3.2"},
+                new Object[]{3, null}
+        )).when(query).list();
+
+        assertThat(catalogueVersions.preload()).isEqualTo(2);
+        assertThat(catalogueVersions.size()).isEqualTo(2);
+        verify(session).createSQLQuery(argThat(sql -> sql.contains("oid") && sql.contains("icd10gmversion") && sql.contains("LOK Version")));
+        verify(session, times(1)).close();
+
+        assertThat(catalogueVersions.getVersion(1)).isEqualTo("2023");
+        assertThat(catalogueVersions.getSanitizedVersion(2)).contains(" 3.2");
+        verify(onkostarApi, never()).getPropertyCatalogueVersionOid(anyInt());
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.mapper;
+
+import org.apache.commons.codec.binary.Base32;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PseudonymizerTest {
+
+    private static String expected(String prefix, String id) {
+        var base32 = new Base32();
+        if (null != prefix) {
+            return String.format("%s%s", prefix, base32.encodeToString(DigestUtils.sha256(id)).substring(0, 41).toLowerCase());
+        }
+        return String.format("UNKNOWN%s", base32.encodeToString(DigestUtils.sha256(id)).substring(0, 41).toLowerCase());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "1", "12345", "2147483647", "Prozedur-ä-ß"})
+    void shouldCreateSamePseudonymAsBase32EncodedHash(String id) {
+        var pseudonymizer = new Pseudonymizer();
+
+        assertThat(pseudonymizer.pseudonymize("TEST", id)).isEqualTo(expected("TEST", id));
+        assertThat(pseudonymizer.pseudonymize(null, id)).isEqualTo(expected(null, id));
+    }
+
+    @Test
+    void shouldCreateSamePseudonymsForManyIds() {
+        var pseudonymizer = new Pseudonymizer(100);
+
+        for (int id = 0; id < 5_000; id++) {
+            assertThat(pseudonymizer.pseudonymize("TEST", Integer.toString(id))).isEqualTo(expected("TEST", Integer.toString(id)));
+        }
+    }
+
+    @Test
+    void shouldUseCachedPseudonymWithChangedPrefix() {
+        var pseudonymizer = new Pseudonymizer();
+
+        assertThat(pseudonymizer.pseudonymize("TEST", "12345")).isEqualTo(expected("TEST", "12345"));
+        assertThat(pseudonymizer.pseudonymize("OTHER", "12345")).isEqualTo(expected("OTHER", "12345"));
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.mapper;
+
+import de.itc.onkostar.api.IOnkostarApi;
+import de.itc.onkostar.api.Item;
+import de.ukw.ccc.bwhc.dto.RebiopsyRequest;
+import de.ukw.ccc.bwhc.dto.Recommendation;
+import de.ukw.ccc.bwhc.dto.StudyInclusionRequest;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+import static de.ukw.ccc.dnpmexport.test.TestUtils.createDisease;
+import static de.ukw.ccc.dnpmexport.test.TestUtils.createTherapieplanProcedure;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class TherapieplanToCarePlanMapperTest {
+
+    private IOnkostarApi onkostarApi;
+
+    private TherapieplanToCarePlanMapper mapper;
+
+    @BeforeEach
+    void setUp(
+            @Mock IOnkostarApi onkostarApi
+    ) {
+        this.onkostarApi = onkostarApi;
+        this.mapper = new TherapieplanToCarePlanMapper(new MapperUtils(onkostarApi, new DnpmExportSettingsProvider(onkostarApi)));
+    }
+
+    @Test
+    void shouldReferenceAlreadyMappedEntities() {
+        var therapieplan = createTherapieplanProcedure(this.onkostarApi);
+        doAnswer(invocationOnMock -> List.of(createDisease(this.onkostarApi))).when(onkostarApi).getDiseasesByProcedureId(anyInt());
+        therapieplan.setStartDate(Date.from(Instant.parse("2024-05-14T12:00:00Z")));
+        therapieplan.setValue("target", new Item("target", ""));
+        therapieplan.setValue("humangenberatung", new Item("humangenberatung", "0"));
+        therapieplan.setValue("mitempfehlungrebiopsie", new Item("mitempfehlungrebiopsie", true));
+        therapieplan.setValue("miteinzelempfehlung", new Item("miteinzelempfehlung", true));
+
+        var carePlan = mapper.apply(
+                therapieplan,
+                List.of(RebiopsyRequest.builder().withId("rebiopsy").build()),
+                List.of(Recommendation.builder().withId("recommendation").build()),
+                List.of(StudyInclusionRequest.builder().withId("study").build())
+        );
+
+        assertThat(carePlan).isPresent();
+        assertThat(carePlan.get().getRebiopsyRequests()).containsExactly("rebiopsy");
+        assertThat(carePlan.get().getRecommendations()).containsExactly("recommendation");
+        assertThat(carePlan.get().getStudyInclusionRequests()).containsExactly("study");
+
+        // Einzelempfehlung procedures are not requested to map recommendations again
+        verify(onkostarApi, never()).getProceduresForDiseaseByForm(anyInt(), anyString());
+    }
+
+}
@@ -26,7 +26,10 @@ package de.ukw.ccc.dnpmexport.mapper;
 
 import de.itc.onkostar.api.IOnkostarApi;
 import de.itc.onkostar.api.Item;
+import de.itc.onkostar.api.Procedure;
 import de.ukw.ccc.bwhc.dto.Medication;
+import de.ukw.ccc.bwhc.dto.Recommendation;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -36,6 +39,7 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import java.time.Instant;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static de.ukw.ccc.dnpmexport.test.TestUtils.*;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -47,6 +51,7 @@ import static org.mockito.Mockito.doAnswer;
 public class TherapieplanToRecommendationMapperTest {
 
     private IOnkostarApi onkostarApi;
+    private MapperUtils mapperUtils;
     private TherapieplanToRecommendationMapper mapper;
 
     @BeforeEach
@@ -54,7 +59,14 @@ public class TherapieplanToRecommendationMapperTest {
             @Mock IOnkostarApi onkostarApi
     ) {
         this.onkostarApi = onkostarApi;
-        this.mapper = new TherapieplanToRecommendationMapper(new MapperUtils(onkostarApi));
+        this.mapperUtils = new MapperUtils(onkostarApi, new DnpmExportSettingsProvider(onkostarApi));
+        this.mapper = new TherapieplanToRecommendationMapper(this.mapperUtils);
+    }
+
+    private List<Recommendation> apply(Procedure procedure) {
+        var result = new AtomicReference<List<Recommendation>>();
+        this.mapperUtils.withProcedureGraph(() -> result.set(this.mapper.apply(procedure)));
+        return result.get();
     }
 
     @Test
@@ -70,7 +82,7 @@ public class TherapieplanToRecommendationMapperTest {
         doAnswer(invocationOnMock -> List.of(createDisease(this.onkostarApi))).when(onkostarApi).getDiseasesByProcedureId(anyInt());
         doAnswer(invocationOnMock -> List.of(einzelempfehlung)).when(onkostarApi).getProceduresForDiseaseByForm(anyInt(), anyString());
 
-        var recommendations = this.mapper.apply(procedure);
+        var recommendations = apply(procedure);
 
         assertThat(recommendations).isNotEmpty();
         assertThat(recommendations.get(0).getId()).matches("UNKNOWN[a-z0-9]+");
@@ -97,7 +109,7 @@ public class TherapieplanToRecommendationMapperTest {
         doAnswer(invocationOnMock -> List.of(createDisease(this.onkostarApi))).when(onkostarApi).getDiseasesByProcedureId(anyInt());
         doAnswer(invocationOnMock -> List.of(einzelempfehlung)).when(onkostarApi).getProceduresForDiseaseByForm(anyInt(), anyString());
 
-        var recommendations = this.mapper.apply(procedure);
+        var recommendations = apply(procedure);
 
         assertThat(recommendations).isNotEmpty();
         assertThat(recommendations.get(0).getIssuedOn()).isEqualTo(issuedOn.toString());
@@ -120,7 +132,7 @@ public class TherapieplanToRecommendationMapperTest {
         doAnswer(invocationOnMock -> List.of(createDisease(this.onkostarApi))).when(onkostarApi).getDiseasesByProcedureId(anyInt());
         doAnswer(invocationOnMock -> List.of(einzelempfehlung)).when(onkostarApi).getProceduresForDiseaseByForm(anyInt(), anyString());
 
-        var recommendations = this.mapper.apply(procedure);
+        var recommendations = apply(procedure);
 
         assertThat(recommendations).isNotEmpty();
         assertThat(recommendations.get(0).getIssuedOn()).isNull();
@@ -0,0 +1,215 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.services;
+
+import de.itc.onkostar.api.IOnkostarApi;
+import de.ukw.ccc.dnpmexport.ExportException;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
+import org.hibernate.SQLQuery;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class BackfillServiceTest {
+
+    private IOnkostarApi onkostarApi;
+
+    private DnpmExportService dnpmExportService;
+
+    private SessionFactory sessionFactory;
+
+    private BackfillService backfillService;
+
+    @BeforeEach
+    void setup(
+            @Mock IOnkostarApi onkostarApi,
+            @Mock DnpmExportService dnpmExportService,
+            @Mock SessionFactory sessionFactory,
+            @Mock Session session,
+            @Mock SQLQuery query,
+            @Mock Transaction transaction
+    ) {
+        this.onkostarApi = onkostarApi;
+        this.dnpmExportService = dnpmExportService;
+        this.sessionFactory = sessionFactory;
+        this.backfillService = new BackfillService(
+                onkostarApi,
+                new DnpmExportSettingsProvider(onkostarApi),
+                dnpmExportService,
+                new OnkostarSessionRunner(onkostarApi)
+        );
+
+        when(onkostarApi.getSessionFactory()).thenReturn(sessionFactory);
+        when(sessionFactory.getCurrentSession()).thenReturn(session);
+        when(sessionFactory.openSession()).thenReturn(session);
+        when(session.beginTransaction()).thenReturn(transaction);
+        when(session.createSQLQuery(anyString())).thenReturn(query);
+        when(query.list()).thenReturn(List.of(BigInteger.valueOf(1), BigInteger.valueOf(2), BigInteger.valueOf(3)));
+    }
+
+    private void awaitBackfill() throws InterruptedException {
+        for (int i = 0; i < 500 && backfillService.isRunning(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(backfillService.isRunning()).isFalse();
+    }
+
+    private void useSettings(Path dataDir) {
+        useSettings(dataDir, "0");
+    }
+
+    private void useSettings(Path dataDir, String rate) {
+        doAnswer(invocationOnMock -> {
+            var name = invocationOnMock.getArgument(0, String.class);
+            switch (name) {
+                case "dnpmexport_data_dir":
+                    return null == dataDir ? null : dataDir.toString();
+                case "dnpmexport_backfill_batch_size":
+                    return "2";
+                case "dnpmexport_backfill_rate":
+                    return rate;
+                default:
+                    return null;
+            }
+        }).when(onkostarApi).getGlobalSetting(anyString());
+    }
+
+    @Test
+    void shouldExportAllKlinikAnamneseProcedures() throws Exception {
+        useSettings(null);
+
+        assertThat(backfillService.start(false, true)).isTrue();
+        awaitBackfill();
+
+        verify(dnpmExportService, times(1)).exportKlinikAnamnese(1, true);
+        verify(dnpmExportService, times(1)).exportKlinikAnamnese(2, true);
+        verify(dnpmExportService, times(1)).exportKlinikAnamnese(3, true);
+        assertThat(backfillService.getStatus())
+                .containsEntry("total", 3L)
+                .containsEntry("exported", 3L)
+                .containsEntry("failed", 0L);
+    }
+
+    @Test
+    void shouldExportWithBoundSession() throws Exception {
+        useSettings(null);
+        var sessionBound = new ConcurrentLinkedQueue<Boolean>();
+        doAnswer(invocationOnMock -> {
+            sessionBound.add(TransactionSynchronizationManager.hasResource(sessionFactory));
+            return null;
+        }).when(dnpmExportService).exportKlinikAnamnese(anyInt(), anyBoolean());
+
+        backfillService.start(false, false);
+        awaitBackfill();
+
+        assertThat(sessionBound).containsExactly(true, true, true);
+        verify(sessionFactory, times(3)).openSession();
+    }
+
+    @Test
+    void shouldCountFailedExports() throws Exception {
+        useSettings(null);
+        doAnswer(invocationOnMock -> {
+            if (invocationOnMock.getArgument(0, Integer.class) == 2) {
+                throw new ExportException("Test");
+            }
+            return null;
+        }).when(dnpmExportService).exportKlinikAnamnese(anyInt(), anyBoolean());
+
+        backfillService.start(false, false);
+        awaitBackfill();
+
+        assertThat(backfillService.getStatus())
+                .containsEntry("exported", 2L)
+                .containsEntry("failed", 1L);
+    }
+
+    @Test
+    void shouldResumeFromCheckpoint(@TempDir Path dataDir) throws Exception {
+        useSettings(dataDir);
+        Files.writeString(dataDir.resolve(BackfillService.CHECKPOINT_FILE_NAME), "2");
+
+        backfillService.start(true, false);
+        awaitBackfill();
+
+        verify(dnpmExportService, times(1)).exportKlinikAnamnese(anyInt(), anyBoolean());
+        verify(dnpmExportService, times(1)).exportKlinikAnamnese(3, false);
+        assertThat(backfillService.getStatus()).containsEntry("skipped", 2L);
+        assertThat(dataDir.resolve(BackfillService.CHECKPOINT_FILE_NAME)).doesNotExist();
+    }
+
+    @Test
+    void shouldNotMoveCheckpointPastFailedExport(@TempDir Path dataDir) throws Exception {
+        useSettings(dataDir);
+        doAnswer(invocationOnMock -> {
+            if (invocationOnMock.getArgument(0, Integer.class) == 2) {
+                throw new ExportException("Test");
+            }
+            return null;
+        }).when(dnpmExportService).exportKlinikAnamnese(anyInt(), anyBoolean());
+
+        backfillService.start(false, false);
+        awaitBackfill();
+
+        verify(dnpmExportService, times(3)).exportKlinikAnamnese(anyInt(), anyBoolean());
+        assertThat(backfillService.getStatus()).containsEntry("checkpoint", 1);
+        assertThat(Files.readString(dataDir.resolve(BackfillService.CHECKPOINT_FILE_NAME))).isEqualTo("1");
+    }
+
+    @Test
+    void shouldLimitExportRate() throws Exception {
+        useSettings(null, "20");
+
+        var start = System.nanoTime();
+        backfillService.start(false, false);
+        awaitBackfill();
+
+        // First export immediately, then one every 50ms
+        verify(dnpmExportService, times(3)).exportKlinikAnamnese(anyInt(), anyBoolean());
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+}
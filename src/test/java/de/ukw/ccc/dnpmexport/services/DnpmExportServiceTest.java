@@ -23,23 +23,34 @@ package de.ukw.ccc.dnpmexport.services;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import de.itc.onkostar.api.IOnkostarApi;
 import de.itc.onkostar.api.Item;
+import de.itc.onkostar.api.Procedure;
 import de.ukw.ccc.bwhc.dto.MtbFile;
+import de.ukw.ccc.dnpmexport.ExportException;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettings;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
+import de.ukw.ccc.dnpmexport.mapper.MapperRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.client.RestTemplate;
 
 import java.net.URI;
+import java.nio.file.Path;
 import java.util.Date;
+import java.util.Map;
+import java.util.Set;
 
 import static de.ukw.ccc.dnpmexport.test.TestUtils.createKlinikAnamneseProcedure;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
@@ -50,16 +61,27 @@ public class DnpmExportServiceTest {
 
     private RestTemplate restTemplate;
 
+    private DnpmExportSettingsProvider settingsProvider;
+
+    private ExportMetrics exportMetrics;
+
     private DnpmExportService dnpmExportService;
 
     @BeforeEach
     void setup(
             @Mock IOnkostarApi onkostarApi,
-            @Mock RestTemplate restTemplate
+            @Mock RestTemplate restTemplate,
+            @Mock DnpmExportSettingsProvider settingsProvider
     ) {
         this.onkostarApi = onkostarApi;
         this.restTemplate = restTemplate;
-        this.dnpmExportService = new DnpmExportService(onkostarApi, restTemplate);
+        this.settingsProvider = settingsProvider;
+
+        // Always use current settings as stubbed in each test
+        when(settingsProvider.get()).thenAnswer(invocationOnMock -> DnpmExportSettings.load(onkostarApi));
+
+        this.exportMetrics = new ExportMetrics();
+        this.dnpmExportService = new DnpmExportService(restTemplate, settingsProvider, new MapperRegistry(onkostarApi, settingsProvider), exportMetrics);
     }
 
     private static String defaultSetting(String name) {
@@ -142,4 +164,203 @@ public class DnpmExportServiceTest {
         verify(restTemplate, times(1)).exchange(any(URI.class), captor.capture(), any(), any(Class.class));
     }
 
+    private static Procedure createProcedureWithConsentActive(IOnkostarApi onkostarApi) {
+        var procedure = createKlinikAnamneseProcedure(onkostarApi);
+        procedure.setValue("ConsentStatusEinwilligungDNPM", new Item("ConsentStatusEinwilligungDNPM", "active"));
+        procedure.setValue("DatumErstdiagnose", new Item("DatumErstdiagnose", new Date(0)));
+        procedure.setValue("ICD10", new Item("ICD10", "F79.9"));
+        procedure.setValue("ICDO3Lokalisation", new Item("ICDO3Lokalisation", "F79.2"));
+        procedure.setValue("ICDO3Histologie", new Item("ICDO3Histologie", "8000/1"));
+        procedure.setValue("WHOGrad", new Item("WHOGrad", "I"));
+        return procedure;
+    }
+
+    @Test
+    void shouldNotSendUnchangedMtbFileAgain() {
+        doAnswer(invocationOnMock -> {
+            var name = invocationOnMock.getArgument(0, String.class);
+            return defaultSetting(name);
+        }).when(this.onkostarApi).getGlobalSetting(anyString());
+
+        when(this.restTemplate.postForEntity(any(URI.class), any(), any())).thenReturn(ResponseEntity.accepted().build());
+
+        this.dnpmExportService.export(createProcedureWithConsentActive(this.onkostarApi));
+        this.dnpmExportService.export(createProcedureWithConsentActive(this.onkostarApi));
+
+        verify(restTemplate, times(1)).postForEntity(any(URI.class), any(), any());
+    }
+
+    @Test
+    void shouldRejectConfigurationWithoutValidExportUrl() {
+        doAnswer(invocationOnMock -> {
+            var name = invocationOnMock.getArgument(0, String.class);
+            if (name.equals("dnpmexport_url")) {
+                return "not a valid url";
+            }
+            return defaultSetting(name);
+        }).when(this.onkostarApi).getGlobalSetting(anyString());
+
+        assertThatThrownBy(() -> this.dnpmExportService.checkConfiguration()).isInstanceOf(ExportException.class);
+    }
+
+    @Test
+    void shouldAcceptConfigurationWithValidExportUrl() {
+        doAnswer(invocationOnMock -> {
+            var name = invocationOnMock.getArgument(0, String.class);
+            return defaultSetting(name);
+        }).when(this.onkostarApi).getGlobalSetting(anyString());
+
+        this.dnpmExportService.checkConfiguration();
+    }
+
+    @Test
+    void shouldRecordOutcomeOfEachExport() {
+        doAnswer(invocationOnMock -> {
+            var name = invocationOnMock.getArgument(0, String.class);
+            return defaultSetting(name);
+        }).when(this.onkostarApi).getGlobalSetting(anyString());
+
+        when(this.restTemplate.postForEntity(any(URI.class), any(), any())).thenReturn(ResponseEntity.accepted().build());
+
+        this.dnpmExportService.export(createProcedureWithConsentActive(this.onkostarApi));
+        this.dnpmExportService.export(createProcedureWithConsentActive(this.onkostarApi));
+
+        assertThat(this.exportMetrics.getExportCount()).isEqualTo(2);
+        assertThat(this.exportMetrics.getOutcomes()).isEqualTo(Map.of("SENT", 1L, "UNCHANGED", 1L));
+        assertThat(this.exportMetrics.getLastPayloadBytes()).isPositive();
+        assertThat(this.exportMetrics.getStageMillis().keySet().containsAll(Set.of("PatientMapper", "graph", "serialization", "http"))).isTrue();
+    }
+
+    @Test
+    void shouldSendChangedMtbFileAgain() {
+        doAnswer(invocationOnMock -> {
+            var name = invocationOnMock.getArgument(0, String.class);
+            return defaultSetting(name);
+        }).when(this.onkostarApi).getGlobalSetting(anyString());
+
+        when(this.restTemplate.postForEntity(any(URI.class), any(), any())).thenReturn(ResponseEntity.accepted().build());
+
+        this.dnpmExportService.export(createProcedureWithConsentActive(this.onkostarApi));
+
+        var procedure = createProcedureWithConsentActive(this.onkostarApi);
+        procedure.setValue("ICD10", new Item("ICD10", "C34.9"));
+        this.dnpmExportService.export(procedure);
+
+        verify(restTemplate, times(2)).postForEntity(any(URI.class), any(), any());
+    }
+
+    @Test
+    void shouldSendUnchangedMtbFileIfForced() {
+        doAnswer(invocationOnMock -> {
+            var name = invocationOnMock.getArgument(0, String.class);
+            return defaultSetting(name);
+        }).when(this.onkostarApi).getGlobalSetting(anyString());
+
+        when(this.restTemplate.postForEntity(any(URI.class), any(), any())).thenReturn(ResponseEntity.accepted().build());
+
+        this.dnpmExportService.export(createProcedureWithConsentActive(this.onkostarApi));
+        this.dnpmExportService.export(createProcedureWithConsentActive(this.onkostarApi), true);
+
+        verify(restTemplate, times(2)).postForEntity(any(URI.class), any(), any());
+    }
+
+    @Test
+    void shouldSendUnchangedMtbFileIfNotConfiguredToSkip() {
+        doAnswer(invocationOnMock -> {
+            var name = invocationOnMock.getArgument(0, String.class);
+            if (name.equals("dnpmexport_skip_unchanged")) {
+                return "false";
+            }
+            return defaultSetting(name);
+        }).when(this.onkostarApi).getGlobalSetting(anyString());
+
+        when(this.restTemplate.postForEntity(any(URI.class), any(), any())).thenReturn(ResponseEntity.accepted().build());
+
+        this.dnpmExportService.export(createProcedureWithConsentActive(this.onkostarApi));
+        this.dnpmExportService.export(createProcedureWithConsentActive(this.onkostarApi));
+
+        verify(restTemplate, times(2)).postForEntity(any(URI.class), any(), any());
+    }
+
+    @Test
+    void shouldSendMtbFileFromOutboxIfDataDirConfigured(@TempDir Path dataDir) throws InterruptedException {
+        doAnswer(invocationOnMock -> {
+            var name = invocationOnMock.getArgument(0, String.class);
+            if (name.equals("dnpmexport_data_dir")) {
+                return dataDir.toString();
+            }
+            return defaultSetting(name);
+        }).when(this.onkostarApi).getGlobalSetting(anyString());
+
+        when(this.restTemplate.postForEntity(any(URI.class), any(), any())).thenReturn(ResponseEntity.accepted().build());
+
+        var dnpmExportService = new DnpmExportService(this.restTemplate, this.settingsProvider, new MapperRegistry(this.onkostarApi, this.settingsProvider), this.exportMetrics);
+        dnpmExportService.export(createProcedureWithConsentActive(this.onkostarApi));
+
+        var captor = ArgumentCaptor.forClass(HttpEntity.class);
+        verify(restTemplate, timeout(1000).times(1)).postForEntity(any(URI.class), captor.capture(), any());
+        dnpmExportService.destroy();
+
+        assertThat(captor.getValue().getBody()).isInstanceOf(byte[].class);
+        assertThat(dnpmExportService.getOutboxSize()).isZero();
+    }
+
+    @Test
+    void shouldDeadLetterRejectedMtbFileAndNotKeepItsHash(@TempDir Path dataDir) throws InterruptedException {
+        doAnswer(invocationOnMock -> {
+            var name = invocationOnMock.getArgument(0, String.class);
+            if (name.equals("dnpmexport_data_dir")) {
+                return dataDir.toString();
+            }
+            return defaultSetting(name);
+        }).when(this.onkostarApi).getGlobalSetting(anyString());
+
+        when(this.restTemplate.postForEntity(any(URI.class), any(), any())).thenReturn(ResponseEntity.badRequest().build());
+
+        var dnpmExportService = new DnpmExportService(this.restTemplate, this.settingsProvider, new MapperRegistry(this.onkostarApi, this.settingsProvider), this.exportMetrics);
+        dnpmExportService.export(createProcedureWithConsentActive(this.onkostarApi));
+        verify(restTemplate, timeout(1000).times(1)).postForEntity(any(URI.class), any(), any());
+        for (int i = 0; i < 100 && this.exportMetrics.getOutboxDeadLettered() == 0; i++) {
+            Thread.sleep(10);
+        }
+
+        // Same MTBFile must not be skipped since it has never been accepted by the remote system
+        dnpmExportService.export(createProcedureWithConsentActive(this.onkostarApi));
+        verify(restTemplate, timeout(1000).times(2)).postForEntity(any(URI.class), any(), any());
+        dnpmExportService.destroy();
+
+        assertThat(dnpmExportService.getOutboxSize()).isZero();
+        assertThat(this.exportMetrics.getOutboxDeadLettered()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldNotSkipRevertedMtbFileWhileChangedOneIsPending(@TempDir Path dataDir) throws InterruptedException {
+        doAnswer(invocationOnMock -> {
+            var name = invocationOnMock.getArgument(0, String.class);
+            if (name.equals("dnpmexport_data_dir")) {
+                return dataDir.toString();
+            }
+            return defaultSetting(name);
+        }).when(this.onkostarApi).getGlobalSetting(anyString());
+
+        when(this.restTemplate.postForEntity(any(URI.class), any(), any()))
+                .thenReturn(ResponseEntity.accepted().build())
+                .thenReturn(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+
+        var dnpmExportService = new DnpmExportService(this.restTemplate, this.settingsProvider, new MapperRegistry(this.onkostarApi, this.settingsProvider), this.exportMetrics);
+        dnpmExportService.export(createProcedureWithConsentActive(this.onkostarApi));
+        verify(restTemplate, timeout(1000).times(1)).postForEntity(any(URI.class), any(), any());
+
+        // Changed MTBFile cannot be sent and remains in outbox
+        var changed = createProcedureWithConsentActive(this.onkostarApi);
+        changed.setValue("ICD10", new Item("ICD10", "C34.9"));
+        dnpmExportService.export(changed);
+
+        // Reverted MTBFile must replace the pending one
+        dnpmExportService.export(createProcedureWithConsentActive(this.onkostarApi));
+        dnpmExportService.destroy();
+
+        assertThat(this.exportMetrics.getOutcomes()).isEqualTo(Map.of("QUEUED", 3L));
+    }
+
 }
@@ -0,0 +1,127 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.services;
+
+import de.ukw.ccc.dnpmexport.mapper.ExportTrace;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ExportMetricsTest {
+
+    private ExportMetrics exportMetrics;
+
+    @BeforeEach
+    void setup() {
+        this.exportMetrics = new ExportMetrics();
+    }
+
+    private static ExportTrace finishedTrace(int klinikAnamneseId, ExportTrace.Outcome outcome) {
+        var trace = new ExportTrace();
+        trace.setKlinikAnamneseId(klinikAnamneseId);
+        trace.setOutcome(outcome);
+        trace.addApiCall("getProcedure", 1_000);
+        trace.addStageNanos(ExportTrace.STAGE_HTTP, 2_000_000);
+        trace.setPayloadBytes(100);
+        trace.finish();
+        return trace;
+    }
+
+    @Test
+    void shouldAggregateTraces() {
+        exportMetrics.record(finishedTrace(1, ExportTrace.Outcome.SENT));
+        exportMetrics.record(finishedTrace(2, ExportTrace.Outcome.SENT));
+        exportMetrics.record(finishedTrace(3, ExportTrace.Outcome.NO_CONSENT));
+
+        assertThat(exportMetrics.getExportCount()).isEqualTo(3);
+        assertThat(exportMetrics.getOutcomes()).isEqualTo(Map.of("SENT", 2L, "NO_CONSENT", 1L));
+        assertThat(exportMetrics.getApiCalls()).isEqualTo(Map.of("getProcedure", 3L));
+        assertThat(exportMetrics.getStageMillis()).containsEntry(ExportTrace.STAGE_HTTP, 6L);
+        assertThat(exportMetrics.getPayloadBytes()).isEqualTo(300);
+        assertThat(exportMetrics.getLastPayloadBytes()).isEqualTo(100);
+    }
+
+    @Test
+    void shouldCalculateDurationPercentiles() {
+        for (int i = 0; i < 100; i++) {
+            exportMetrics.record(finishedTrace(i, ExportTrace.Outcome.SENT));
+        }
+
+        assertThat(exportMetrics.getDurationMillisP50()).isPositive();
+        assertThat(exportMetrics.getDurationMillisP50()).isLessThanOrEqualTo(exportMetrics.getDurationMillisP95());
+        assertThat(exportMetrics.getDurationMillisP95()).isLessThanOrEqualTo(exportMetrics.getDurationMillisP99());
+        assertThat(exportMetrics.getDurationMillisP99()).isLessThanOrEqualTo(exportMetrics.getDurationMillisMax());
+    }
+
+    @Test
+    void shouldKeepSlowestExports() throws InterruptedException {
+        for (int i = 0; i < ExportMetrics.SLOWEST_EXPORTS; i++) {
+            exportMetrics.record(finishedTrace(i, ExportTrace.Outcome.SENT));
+        }
+
+        var slowTrace = new ExportTrace();
+        slowTrace.setKlinikAnamneseId(4711);
+        Thread.sleep(20);
+        slowTrace.finish();
+        exportMetrics.record(slowTrace);
+
+        assertThat(exportMetrics.getSlowestExports()).hasSize(ExportMetrics.SLOWEST_EXPORTS);
+        assertThat(exportMetrics.getSlowestExports().get(0)).startsWith("export klinikanamnese=4711 outcome=SKIPPED");
+    }
+
+    @Test
+    void shouldAggregateDuplicateApiCallsOfProfiledExports() {
+        exportMetrics.record(finishedTrace(1, ExportTrace.Outcome.SENT));
+
+        var profiledTrace = new ExportTrace();
+        profiledTrace.addProfiledApiCall("getProcedure", List.of(1), 1_000);
+        profiledTrace.addProfiledApiCall("getProcedure", List.of(1), 1_000);
+        profiledTrace.addProfiledApiCall("getProcedure", List.of(2), 1_000);
+        profiledTrace.addProfiledApiCall("getProcedure", List.of(1), 1_000);
+        profiledTrace.finish();
+        exportMetrics.record(profiledTrace);
+
+        assertThat(exportMetrics.getApiCalls()).isEqualTo(Map.of("getProcedure", 5L));
+        assertThat(exportMetrics.getDuplicateApiCalls()).isEqualTo(Map.of("getProcedure", 2L));
+        assertThat(exportMetrics.getRedundancyRatio()).isEqualTo(0.5);
+    }
+
+    @Test
+    void shouldResetMetrics() {
+        exportMetrics.record(finishedTrace(1, ExportTrace.Outcome.SENT));
+
+        exportMetrics.reset();
+
+        assertThat(exportMetrics.getExportCount()).isZero();
+        assertThat(exportMetrics.getOutcomes()).isEmpty();
+        assertThat(exportMetrics.getDurationMillisMax()).isZero();
+        assertThat(exportMetrics.getSlowestExports()).isEmpty();
+    }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.services;
+
+import de.ukw.ccc.dnpmexport.ExportException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ExportOutboxTest {
+
+    private final List<String> listened = new CopyOnWriteArrayList<>();
+
+    private final ExportOutbox.Listener listener = entry -> listened.add("deadLettered:" + entry.getSeq() + ":" + entry.getHash());
+
+    private static void awaitSize(ExportOutbox outbox, int size) throws InterruptedException {
+        for (int i = 0; i < 200 && outbox.size() != size; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(outbox.size()).isEqualTo(size);
+    }
+
+    @Test
+    void shouldSendAndRemoveEntries(@TempDir Path dataDir) throws Exception {
+        var sent = new CopyOnWriteArrayList<ExportOutbox.Entry>();
+        var bodies = new CopyOnWriteArrayList<String>();
+        ExportOutbox.Sender sender = (entry, body) -> {
+            sent.add(entry);
+            bodies.add(body);
+        };
+        var outbox = new ExportOutbox(dataDir, sender, listener, 10, 100, 100);
+
+        outbox.enqueue(ExportOutbox.Type.MTBFILE, "12345", "{\"a\":\"ä\"}", "abcdef");
+        outbox.enqueue(ExportOutbox.Type.DELETE, "12345", null, null);
+
+        awaitSize(outbox, 0);
+        outbox.stop(1000);
+
+        assertThat(sent).hasSize(2);
+        assertThat(sent.get(0).getType()).isEqualTo(ExportOutbox.Type.MTBFILE);
+        assertThat(sent.get(0).getHash()).isEqualTo("abcdef");
+        assertThat(sent.get(1).getType()).isEqualTo(ExportOutbox.Type.DELETE);
+        assertThat(bodies).containsExactly("{\"a\":\"ä\"}", null);
+        assertThat(listened).isEmpty();
+        try (var files = Files.list(dataDir.resolve(ExportOutbox.DIR_NAME))) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void shouldRetryFailedEntryAndKeepOrderPerPatient(@TempDir Path dataDir) throws Exception {
+        var attempts = new AtomicInteger();
+        var sent = new CopyOnWriteArrayList<String>();
+        ExportOutbox.Sender sender = (entry, body) -> {
+            if (entry.getPatientId().equals("12345") && entry.getSeq() == 1 && attempts.incrementAndGet() < 3) {
+                throw new ExportException("Test");
+            }
+            sent.add(entry.getPatientId() + ":" + entry.getSeq());
+        };
+        var outbox = new ExportOutbox(dataDir, sender, listener, 10, 40, 100);
+
+        outbox.enqueue(ExportOutbox.Type.MTBFILE, "12345", "{}", null);
+        outbox.enqueue(ExportOutbox.Type.MTBFILE, "67890", "{}", null);
+        outbox.enqueue(ExportOutbox.Type.DELETE, "12345", null, null);
+
+        awaitSize(outbox, 0);
+        outbox.stop(1000);
+
+        assertThat(attempts.get()).isEqualTo(3);
+        assertThat(sent).containsSubsequence("12345:1", "12345:3");
+        assertThat(sent).containsExactlyInAnyOrder("12345:1", "67890:2", "12345:3");
+    }
+
+    @Test
+    void shouldSendPendingEntriesAfterRestart(@TempDir Path dataDir) throws Exception {
+        ExportOutbox.Sender failing = (entry, body) -> {
+            throw new ExportException("Test");
+        };
+        var outbox = new ExportOutbox(dataDir, failing, listener, 60_000, 60_000, 100);
+        outbox.enqueue(ExportOutbox.Type.MTBFILE, "12345", "{}", null);
+        outbox.stop(1000);
+
+        var sent = new CopyOnWriteArrayList<ExportOutbox.Entry>();
+        var restarted = new ExportOutbox(dataDir, (entry, body) -> sent.add(entry), listener, 10, 100, 100);
+        awaitSize(restarted, 0);
+        restarted.enqueue(ExportOutbox.Type.DELETE, "12345", null, null);
+        awaitSize(restarted, 0);
+        restarted.stop(1000);
+
+        assertThat(sent).extracting(ExportOutbox.Entry::getSeq).isEqualTo(List.of(1L, 2L));
+    }
+
+    @Test
+    void shouldDeadLetterRejectedEntryWithoutBlockingPatient(@TempDir Path dataDir) throws Exception {
+        var sent = new CopyOnWriteArrayList<Long>();
+        ExportOutbox.Sender sender = (entry, body) -> {
+            if (entry.getSeq() == 1) {
+                throw new RejectedRequestException("Test");
+            }
+            sent.add(entry.getSeq());
+        };
+        var outbox = new ExportOutbox(dataDir, sender, listener, 60_000, 60_000, 100);
+
+        outbox.enqueue(ExportOutbox.Type.MTBFILE, "12345", "{}", "abcdef");
+        outbox.enqueue(ExportOutbox.Type.DELETE, "12345", null, null);
+
+        awaitSize(outbox, 0);
+        outbox.stop(1000);
+
+        assertThat(sent).containsExactly(2L);
+        assertThat(outbox.getDeadLetterCount()).isEqualTo(1);
+        assertThat(listened).containsExactly("deadLettered:1:abcdef");
+        assertThat(dataDir.resolve(ExportOutbox.DIR_NAME).resolve(ExportOutbox.DEAD_LETTER_DIR_NAME).resolve("0000000000000000001.json")).exists();
+    }
+
+    @Test
+    void shouldDeadLetterEntryAfterMaxAttempts(@TempDir Path dataDir) throws Exception {
+        var attempts = new AtomicInteger();
+        ExportOutbox.Sender failing = (entry, body) -> {
+            attempts.incrementAndGet();
+            throw new ExportException("Test");
+        };
+        var outbox = new ExportOutbox(dataDir, failing, listener, 10, 20, 3);
+
+        outbox.enqueue(ExportOutbox.Type.MTBFILE, "12345", "{}", "abcdef");
+
+        awaitSize(outbox, 0);
+        outbox.stop(1000);
+
+        assertThat(attempts.get()).isEqualTo(3);
+        assertThat(outbox.getDeadLetterCount()).isEqualTo(1);
+        assertThat(listened).containsExactly("deadLettered:1:abcdef");
+    }
+
+    @Test
+    void shouldReplacePendingMtbFilesOfSamePatient(@TempDir Path dataDir) throws Exception {
+        ExportOutbox.Sender failing = (entry, body) -> {
+            throw new ExportException("Test");
+        };
+        var outbox = new ExportOutbox(dataDir, failing, listener, 60_000, 60_000, 100);
+        outbox.enqueue(ExportOutbox.Type.MTBFILE, "12345", "{\"v\":1}", "a");
+        outbox.enqueue(ExportOutbox.Type.MTBFILE, "67890", "{\"v\":1}", "b");
+        outbox.enqueue(ExportOutbox.Type.MTBFILE, "12345", "{\"v\":2}", "c");
+        outbox.stop(1000);
+
+        assertThat(outbox.size()).isEqualTo(2);
+
+        var sent = new CopyOnWriteArrayList<String>();
+        var restarted = new ExportOutbox(dataDir, (entry, body) -> sent.add(entry.getPatientId() + ":" + body), listener, 10, 100, 100);
+        awaitSize(restarted, 0);
+        restarted.stop(1000);
+
+        assertThat(sent).containsExactlyInAnyOrder("67890:{\"v\":1}", "12345:{\"v\":2}");
+    }
+
+    @Test
+    void shouldNotSendEntryAgainIfFileCannotBeDeleted(@TempDir Path dataDir) throws Exception {
+        var attempts = new AtomicInteger();
+        var outboxDir = dataDir.resolve(ExportOutbox.DIR_NAME);
+        ExportOutbox.Sender sender = (entry, body) -> {
+            attempts.incrementAndGet();
+            // A non-empty directory in place of the file lets the delete fail
+            try {
+                var file = outboxDir.resolve("0000000000000000001.json");
+                Files.delete(file);
+                Files.createDirectories(file.resolve("blocked"));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        var outbox = new ExportOutbox(dataDir, sender, listener, 10, 100, 100);
+
+        outbox.enqueue(ExportOutbox.Type.MTBFILE, "12345", "{}", null);
+        awaitSize(outbox, 0);
+        Thread.sleep(50);
+        outbox.stop(1000);
+
+        assertThat(attempts.get()).isEqualTo(1);
+    }
+
+}
@@ -0,0 +1,269 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.services;
+
+import de.itc.onkostar.api.IOnkostarApi;
+import de.ukw.ccc.dnpmexport.ExportException;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.orm.hibernate4.SessionHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static de.ukw.ccc.dnpmexport.test.TestUtils.createKlinikAnamneseProcedure;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ExportQueueTest {
+
+    private IOnkostarApi onkostarApi;
+
+    private DnpmExportService dnpmExportService;
+
+    private ExportMetrics exportMetrics;
+
+    private SessionFactory sessionFactory;
+
+    private Session session;
+
+    private Transaction transaction;
+
+    @BeforeEach
+    void setup(
+            @Mock IOnkostarApi onkostarApi,
+            @Mock DnpmExportService dnpmExportService,
+            @Mock SessionFactory sessionFactory,
+            @Mock Session session,
+            @Mock Transaction transaction
+    ) {
+        this.onkostarApi = onkostarApi;
+        this.dnpmExportService = dnpmExportService;
+        this.exportMetrics = new ExportMetrics();
+        this.sessionFactory = sessionFactory;
+        this.session = session;
+        this.transaction = transaction;
+    }
+
+    private OnkostarSessionRunner sessionRunner() {
+        doAnswer(invocationOnMock -> sessionFactory).when(onkostarApi).getSessionFactory();
+        doAnswer(invocationOnMock -> session).when(sessionFactory).openSession();
+        doAnswer(invocationOnMock -> transaction).when(session).beginTransaction();
+        return new OnkostarSessionRunner(onkostarApi);
+    }
+
+    @Test
+    void shouldExportRelatedKlinikAnamneseInWorkerThread() throws Exception {
+        var procedure = createKlinikAnamneseProcedure(this.onkostarApi);
+        doAnswer(invocationOnMock -> Optional.of(invocationOnMock.getArgument(0))).when(dnpmExportService).findKlinikAnamnese(any());
+
+        var exportQueue = new ExportQueue(new DnpmExportSettingsProvider(onkostarApi), dnpmExportService, sessionRunner(), exportMetrics);
+
+        exportQueue.submit(procedure);
+        exportQueue.destroy();
+
+        verify(dnpmExportService, times(1)).exportKlinikAnamnese(anyInt());
+        assertThat(exportQueue.getSubmittedCount()).isEqualTo(1);
+        assertThat(exportQueue.getCompletedCount()).isEqualTo(1);
+        assertThat(exportQueue.getFailedCount()).isZero();
+    }
+
+    @Test
+    void shouldIgnoreProcedureWithoutRelatedKlinikAnamnese() throws Exception {
+        doAnswer(invocationOnMock -> Optional.empty()).when(dnpmExportService).findKlinikAnamnese(any());
+
+        var exportQueue = new ExportQueue(new DnpmExportSettingsProvider(onkostarApi), dnpmExportService, new OnkostarSessionRunner(onkostarApi), exportMetrics);
+
+        exportQueue.submit(createKlinikAnamneseProcedure(this.onkostarApi));
+        exportQueue.destroy();
+
+        verify(dnpmExportService, never()).exportKlinikAnamnese(anyInt());
+    }
+
+    @Test
+    void shouldCountFailedExports() throws Exception {
+        doAnswer(invocationOnMock -> Optional.of(invocationOnMock.getArgument(0))).when(dnpmExportService).findKlinikAnamnese(any());
+        doThrow(new ExportException("Test")).when(dnpmExportService).exportKlinikAnamnese(anyInt());
+
+        var exportQueue = new ExportQueue(new DnpmExportSettingsProvider(onkostarApi), dnpmExportService, sessionRunner(), exportMetrics);
+
+        exportQueue.submit(createKlinikAnamneseProcedure(this.onkostarApi));
+        exportQueue.destroy();
+
+        assertThat(exportQueue.getCompletedCount()).isZero();
+        assertThat(exportQueue.getFailedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldThrowConfigurationErrorToSubmittingThread() throws Exception {
+        doThrow(new ExportException("Test")).when(dnpmExportService).checkConfiguration();
+
+        var exportQueue = new ExportQueue(new DnpmExportSettingsProvider(onkostarApi), dnpmExportService, new OnkostarSessionRunner(onkostarApi), exportMetrics);
+
+        assertThatThrownBy(() -> exportQueue.submit(createKlinikAnamneseProcedure(this.onkostarApi)))
+                .isInstanceOf(ExportException.class);
+        exportQueue.destroy();
+
+        verify(dnpmExportService, never()).exportKlinikAnamnese(anyInt());
+        assertThat(exportQueue.getFailedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldCoalesceSubmissionsForSameKlinikAnamnese() throws Exception {
+        doAnswer(invocationOnMock -> Optional.of(invocationOnMock.getArgument(0))).when(dnpmExportService).findKlinikAnamnese(any());
+
+        var exportQueue = new ExportQueue(new DnpmExportSettingsProvider(onkostarApi), dnpmExportService, sessionRunner(), exportMetrics);
+
+        for (int i = 0; i < 5; i++) {
+            exportQueue.submit(createKlinikAnamneseProcedure(this.onkostarApi));
+        }
+        var other = createKlinikAnamneseProcedure(this.onkostarApi);
+        other.setId(2);
+        exportQueue.submit(other);
+
+        assertThat(exportQueue.getScheduledCount()).isEqualTo(2);
+        exportQueue.destroy();
+
+        verify(dnpmExportService, times(1)).exportKlinikAnamnese(1);
+        verify(dnpmExportService, times(1)).exportKlinikAnamnese(2);
+        assertThat(exportQueue.getSubmittedCount()).isEqualTo(6);
+        assertThat(exportQueue.getCoalescedCount()).isEqualTo(4);
+        assertThat(exportQueue.getCompletedCount()).isEqualTo(2);
+        assertThat(exportMetrics.getQueueSubmitted()).isEqualTo(6);
+        assertThat(exportMetrics.getQueueCoalesced()).isEqualTo(4);
+    }
+
+    @Test
+    void shouldExportAfterQuietPeriod() throws Exception {
+        doAnswer(invocationOnMock -> "dnpmexport_export_quiet_period".equals(invocationOnMock.getArgument(0)) ? "10" : null)
+                .when(onkostarApi).getGlobalSetting(anyString());
+        doAnswer(invocationOnMock -> Optional.of(invocationOnMock.getArgument(0))).when(dnpmExportService).findKlinikAnamnese(any());
+
+        var exportQueue = new ExportQueue(new DnpmExportSettingsProvider(onkostarApi), dnpmExportService, sessionRunner(), exportMetrics);
+
+        exportQueue.submit(createKlinikAnamneseProcedure(this.onkostarApi));
+
+        verify(dnpmExportService, timeout(1000).times(1)).exportKlinikAnamnese(1);
+        assertThat(exportQueue.getScheduledCount()).isZero();
+        exportQueue.destroy();
+    }
+
+    @Test
+    void shouldRunExportInCallingThreadIfQueueIsFull() throws Exception {
+        doAnswer(invocationOnMock -> {
+            var name = invocationOnMock.getArgument(0, String.class);
+            return name.equals("dnpmexport_export_workers") || name.equals("dnpmexport_export_queue_size") ? "1" : null;
+        }).when(onkostarApi).getGlobalSetting(anyString());
+        doAnswer(invocationOnMock -> Optional.of(invocationOnMock.getArgument(0))).when(dnpmExportService).findKlinikAnamnese(any());
+
+        var blocker = new Object();
+        var exportThreads = ConcurrentHashMap.<String>newKeySet();
+        doAnswer(invocationOnMock -> {
+            exportThreads.add(Thread.currentThread().getName());
+            if (Thread.currentThread().getName().startsWith("dnpmexport-worker-")) {
+                synchronized (blocker) {
+                    blocker.wait(200);
+                }
+            }
+            return null;
+        }).when(dnpmExportService).exportKlinikAnamnese(anyInt());
+
+        var exportQueue = new ExportQueue(new DnpmExportSettingsProvider(onkostarApi), dnpmExportService, sessionRunner(), exportMetrics);
+        for (int i = 1; i <= 3; i++) {
+            var procedure = createKlinikAnamneseProcedure(this.onkostarApi);
+            procedure.setId(i);
+            exportQueue.submit(procedure);
+        }
+        exportQueue.destroy();
+
+        verify(dnpmExportService, times(3)).exportKlinikAnamnese(anyInt());
+        assertThat(exportQueue.getRunInCallerCount()).isEqualTo(2);
+        assertThat(exportQueue.getCompletedCount()).isEqualTo(3);
+        assertThat(exportThreads).contains(Thread.currentThread().getName());
+        assertThat(exportThreads).noneMatch(name -> name.startsWith("dnpmexport-scheduler-"));
+    }
+
+    @Test
+    void shouldExportInWorkerThreadWithBoundSession() throws Exception {
+        doAnswer(invocationOnMock -> Optional.of(invocationOnMock.getArgument(0))).when(dnpmExportService).findKlinikAnamnese(any());
+
+        var exportThread = new AtomicReference<String>();
+        var boundSession = new AtomicReference<Session>();
+        doAnswer(invocationOnMock -> {
+            // Onkostar gets its current session from the resource bound to the session factory
+            exportThread.set(Thread.currentThread().getName());
+            boundSession.set(((SessionHolder) TransactionSynchronizationManager.getResource(sessionFactory)).getSession());
+            return null;
+        }).when(dnpmExportService).exportKlinikAnamnese(anyInt());
+
+        var exportQueue = new ExportQueue(new DnpmExportSettingsProvider(onkostarApi), dnpmExportService, sessionRunner(), exportMetrics);
+        exportQueue.submit(createKlinikAnamneseProcedure(this.onkostarApi));
+        exportQueue.destroy();
+
+        assertThat(exportThread.get()).startsWith("dnpmexport-worker-");
+        assertThat(boundSession.get()).isSameAs(session);
+        assertThat(exportQueue.getCompletedCount()).isEqualTo(1);
+        verify(transaction, times(1)).commit();
+        verify(session, times(1)).close();
+        assertThat(TransactionSynchronizationManager.hasResource(sessionFactory)).isFalse();
+    }
+
+    @Test
+    void shouldScheduleExportAfterCommitOfSubmittingTransaction() throws Exception {
+        doAnswer(invocationOnMock -> Optional.of(invocationOnMock.getArgument(0))).when(dnpmExportService).findKlinikAnamnese(any());
+
+        var exportQueue = new ExportQueue(new DnpmExportSettingsProvider(onkostarApi), dnpmExportService, sessionRunner(), exportMetrics);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            exportQueue.submit(createKlinikAnamneseProcedure(this.onkostarApi));
+            assertThat(exportQueue.getScheduledCount()).isZero();
+
+            TransactionSynchronizationUtils.triggerAfterCommit();
+            assertThat(exportQueue.getScheduledCount()).isEqualTo(1);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        exportQueue.destroy();
+
+        verify(dnpmExportService, times(1)).exportKlinikAnamnese(1);
+    }
+
+}
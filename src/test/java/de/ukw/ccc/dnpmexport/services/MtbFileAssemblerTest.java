@@ -0,0 +1,132 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.services;
+
+import de.itc.onkostar.api.IOnkostarApi;
+import de.ukw.ccc.bwhc.dto.Claim;
+import de.ukw.ccc.bwhc.dto.MtbFile;
+import de.ukw.ccc.dnpmexport.config.DnpmExportSettingsProvider;
+import de.ukw.ccc.dnpmexport.mapper.MapperUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class MtbFileAssemblerTest {
+
+    private IOnkostarApi onkostarApi;
+
+    private MapperUtils mapperUtils;
+
+    private MtbFileAssembler assembler;
+
+    @BeforeEach
+    void setup(@Mock IOnkostarApi onkostarApi) {
+        this.onkostarApi = onkostarApi;
+        this.mapperUtils = new MapperUtils(onkostarApi, new DnpmExportSettingsProvider(onkostarApi));
+        this.assembler = new MtbFileAssembler(mapperUtils, 4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.assembler.stop();
+    }
+
+    private static List<Consumer<MtbFile>> claimBranches(int count) {
+        return IntStream.range(0, count)
+                .<Consumer<MtbFile>>mapToObj(i -> partial -> {
+                    // Later branches finish first
+                    try {
+                        Thread.sleep((count - i) * 5L);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    partial.getClaims().add(Claim.builder().withId("claim-" + i).build());
+                })
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void shouldMergeInOrderOfBranches() {
+        var result = MtbFile.builder().build();
+
+        assembler.assemble(result, claimBranches(8));
+
+        assertThat(result.getClaims().stream().map(Claim::getId))
+                .containsExactly("claim-0", "claim-1", "claim-2", "claim-3", "claim-4", "claim-5", "claim-6", "claim-7");
+    }
+
+    @Test
+    void shouldAssembleSequentiallyWithParallelismOfOne() {
+        var sequentialAssembler = new MtbFileAssembler(mapperUtils, 1);
+        var result = MtbFile.builder().build();
+
+        sequentialAssembler.assemble(result, claimBranches(3));
+
+        assertThat(sequentialAssembler.isParallel()).isFalse();
+        assertThat(result.getClaims().stream().map(Claim::getId)).containsExactly("claim-0", "claim-1", "claim-2");
+    }
+
+    @Test
+    void shouldShareProcedureGraphWithBranches() {
+        doAnswer(invocationOnMock -> List.of()).when(onkostarApi).getProceduresForDiseaseByForm(anyInt(), anyString());
+        var result = MtbFile.builder().build();
+
+        mapperUtils.withProcedureGraph(() -> assembler.assemble(result, List.of(
+                partial -> mapperUtils.getProceduresForDiseaseByForm(1, "DNPM Therapieplan"),
+                partial -> mapperUtils.getProceduresForDiseaseByForm(1, "DNPM Therapieplan"),
+                partial -> mapperUtils.getProceduresForDiseaseByForm(1, "DNPM Therapieplan")
+        )));
+
+        verify(onkostarApi, times(1)).getProceduresForDiseaseByForm(1, "DNPM Therapieplan");
+    }
+
+    @Test
+    void shouldRethrowExceptionOfBranch() {
+        var result = MtbFile.builder().build();
+
+        assertThatThrownBy(() -> assembler.assemble(result, List.of(
+                partial -> partial.getClaims().add(Claim.builder().withId("claim").build()),
+                partial -> {
+                    throw new IllegalArgumentException("Test");
+                }
+        ))).isInstanceOf(IllegalArgumentException.class).hasMessage("Test");
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Comprehensive Cancer Center Mainfranken
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.ukw.ccc.dnpmexport.services;
+
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.ukw.ccc.bwhc.dto.MtbFile;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MtbFileHashStoreTest {
+
+    @Test
+    void shouldKeepHashesInMemoryWithoutDataDir() {
+        var hashStore = new MtbFileHashStore(null);
+        hashStore.put("12345", "abc");
+
+        assertThat(hashStore.isUnchanged("12345", "abc")).isTrue();
+        assertThat(hashStore.isUnchanged("12345", "def")).isFalse();
+        assertThat(hashStore.isUnchanged("67890", "abc")).isFalse();
+    }
+
+    @Test
+    void shouldPersistHashesInDataDir(@TempDir Path dataDir) {
+        var hashStore = new MtbFileHashStore(dataDir);
+        hashStore.put("12345", "abc");
+        hashStore.close();
+
+        assertThat(dataDir.resolve(MtbFileHashStore.FILE_NAME)).exists();
+        assertThat(new MtbFileHashStore(dataDir).isUnchanged("12345", "abc")).isTrue();
+    }
+
+    @Test
+    void shouldRemovePersistedHash(@TempDir Path dataDir) {
+        var hashStore = new MtbFileHashStore(dataDir);
+        hashStore.put("12345", "abc");
+        hashStore.close();
+        var reloaded = new MtbFileHashStore(dataDir);
+        reloaded.remove("12345");
+        reloaded.close();
+
+        assertThat(new MtbFileHashStore(dataDir).isUnchanged("12345", "abc")).isFalse();
+    }
+
+    @Test
+    void shouldWriteChangesOnFlushOnly(@TempDir Path dataDir) {
+        var hashStore = new MtbFileHashStore(dataDir);
+        hashStore.put("12345", "abc");
+        hashStore.put("67890", "def");
+
+        assertThat(dataDir.resolve(MtbFileHashStore.FILE_NAME)).doesNotExist();
+
+        hashStore.flush();
+        hashStore.close();
+
+        var reloaded = new MtbFileHashStore(dataDir);
+        assertThat(reloaded.isUnchanged("12345", "abc")).isTrue();
+        assertThat(reloaded.isUnchanged("67890", "def")).isTrue();
+        reloaded.close();
+    }
+
+    @Test
+    void shouldDigestCanonicalJsonWithoutBuffering() throws Exception {
+        var mtbFile = MtbFile.builder().build();
+        var canonicalJson = new ObjectMapper()
+                .configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true)
+                .writeValueAsBytes(mtbFile);
+
+        var digest = MtbFileHashStore.digest(mtbFile);
+
+        assertThat(digest).isPresent();
+        assertThat(digest.get().getHash()).isEqualTo(DigestUtils.sha256Hex(canonicalJson));
+        assertThat(digest.get().getSize()).isEqualTo(canonicalJson.length);
+        assertThat(MtbFileHashStore.hash(mtbFile)).contains(digest.get().getHash());
+    }
+
+}